@@ -0,0 +1,105 @@
+package utils;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * kernels of VectorKernels with the Vector API. Vectors shorter than one register are left to the scalar kernels.
+ * It is only compiled and loaded with --add-modules jdk.incubator.vector.
+ * Products are fused (fma), so results can differ from the scalar kernels in the last bits.
+ * @author tndoan
+ *
+ */
+class SimdVectorKernels extends VectorKernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	private static final int LANES = SPECIES.length();
+
+	@Override
+	protected double dotImpl(double[] a, int aOff, double[] b, int bOff, int n) {
+		if (n < LANES)
+			return super.dotImpl(a, aOff, b, bOff, n);
+		int bound = SPECIES.loopBound(n);
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int t = 0;
+		for (; t < bound; t += LANES)
+			acc = DoubleVector.fromArray(SPECIES, a, aOff + t).fma(DoubleVector.fromArray(SPECIES, b, bOff + t), acc);
+		double result = acc.reduceLanes(VectorOperators.ADD);
+		for (; t < n; t++)
+			result += a[aOff + t] * b[bOff + t];
+		return result;
+	}
+
+	@Override
+	protected void axpyImpl(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+		int bound = SPECIES.loopBound(n);
+		int t = 0;
+		for (; t < bound; t += LANES)
+			DoubleVector.fromArray(SPECIES, x, xOff + t).fma(DoubleVector.broadcast(SPECIES, alpha), DoubleVector.fromArray(SPECIES, y, yOff + t)).intoArray(y, yOff + t);
+		for (; t < n; t++)
+			y[yOff + t] += alpha * x[xOff + t];
+	}
+
+	@Override
+	protected void multiDotImpl(double[] x, int xOff, double[] m, int[] rows, int k, double[] out) {
+		if (k < LANES) {
+			super.multiDotImpl(x, xOff, m, rows, k, out);
+			return;
+		}
+		// chunks of the vector are loaded once and reused for every row
+		int bound = SPECIES.loopBound(k);
+		DoubleVector x0 = DoubleVector.fromArray(SPECIES, x, xOff);
+		for (int j = 0; j < rows.length; j++) {
+			int off = rows[j] * k;
+			DoubleVector acc = x0.mul(DoubleVector.fromArray(SPECIES, m, off));
+			int t = LANES;
+			for (; t < bound; t += LANES)
+				acc = DoubleVector.fromArray(SPECIES, x, xOff + t).fma(DoubleVector.fromArray(SPECIES, m, off + t), acc);
+			double result = acc.reduceLanes(VectorOperators.ADD);
+			for (; t < k; t++)
+				result += x[xOff + t] * m[off + t];
+			out[j] = result;
+		}
+	}
+
+	@Override
+	protected void addWeightedRowsImpl(double[] m, int[] rows, double[] w, int k, double[] out) {
+		// each chunk of out stays in a register while all rows are added to it
+		int bound = SPECIES.loopBound(k);
+		int t = 0;
+		for (; t < bound; t += LANES) {
+			DoubleVector acc = DoubleVector.fromArray(SPECIES, out, t);
+			for (int j = 0; j < rows.length; j++)
+				acc = DoubleVector.fromArray(SPECIES, m, rows[j] * k + t).fma(DoubleVector.broadcast(SPECIES, w[j]), acc);
+			acc.intoArray(out, t);
+		}
+		for (; t < k; t++) {
+			double acc = out[t];
+			for (int j = 0; j < rows.length; j++)
+				acc += w[j] * m[rows[j] * k + t];
+			out[t] = acc;
+		}
+	}
+
+	@Override
+	protected void subImpl(double[] x, double[] y, double[] out) {
+		int bound = SPECIES.loopBound(out.length);
+		int i = 0;
+		for (; i < bound; i += LANES)
+			DoubleVector.fromArray(SPECIES, x, i).sub(DoubleVector.fromArray(SPECIES, y, i)).intoArray(out, i);
+		for (; i < out.length; i++)
+			out[i] = x[i] - y[i];
+	}
+
+	@Override
+	protected void scaleImpl(double t, double[] x, double[] out) {
+		int bound = SPECIES.loopBound(out.length);
+		int i = 0;
+		for (; i < bound; i += LANES)
+			DoubleVector.fromArray(SPECIES, x, i).mul(t).intoArray(out, i);
+		for (; i < out.length; i++)
+			out[i] = t * x[i];
+	}
+}
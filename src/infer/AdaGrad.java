@@ -0,0 +1,21 @@
+package infer;
+
+/**
+ * AdaGrad: the learning rate of each parameter is divided by the root of the sum of all its square gradients
+ * @author tndoan
+ *
+ */
+public class AdaGrad extends BaseOptimizer {
+
+	private static final double EPSILON = 1e-8;
+
+	public AdaGrad(double learningRate) {
+		super(learningRate, 1);
+	}
+
+	@Override
+	protected double delta(double[][] s, int p, double g) {
+		s[0][p] += g * g;
+		return learningRate * g / (Math.sqrt(s[0][p]) + EPSILON);
+	}
+}
@@ -0,0 +1,52 @@
+package infer;
+
+/**
+ * Adam: moving averages of gradients and of square gradients of each parameter, with bias correction
+ * @author tndoan
+ *
+ */
+public class Adam extends BaseOptimizer {
+
+	private static final double EPSILON = 1e-8;
+
+	private double beta1;
+
+	private double beta2;
+
+	/**
+	 * bias corrections of the moving averages at the current step
+	 */
+	private double correction1, correction2;
+
+	public Adam(double learningRate) {
+		this(learningRate, 0.9, 0.999);
+	}
+
+	/**
+	 *
+	 * @param learningRate	learning rate
+	 * @param beta1			weight of the past in the moving average of gradients
+	 * @param beta2			weight of the past in the moving average of square gradients
+	 */
+	public Adam(double learningRate, double beta1, double beta2) {
+		super(learningRate, 2);
+		this.beta1 = beta1;
+		this.beta2 = beta2;
+	}
+
+	@Override
+	public void nextStep() {
+		super.nextStep();
+		correction1 = 1.0 - Math.pow(beta1, step);
+		correction2 = 1.0 - Math.pow(beta2, step);
+	}
+
+	@Override
+	protected double delta(double[][] s, int p, double g) {
+		s[0][p] = beta1 * s[0][p] + (1.0 - beta1) * g;
+		s[1][p] = beta2 * s[1][p] + (1.0 - beta2) * g * g;
+		double m = s[0][p] / correction1;
+		double v = s[1][p] / correction2;
+		return learningRate * m / (Math.sqrt(v) + EPSILON);
+	}
+}
@@ -0,0 +1,101 @@
+package infer;
+
+import java.util.IdentityHashMap;
+
+import object.FactorStore;
+
+/**
+ * common part of optimizers: state arrays of each parameter block and momentum for biases.
+ * Subclasses only give the update of one value from its gradient and its state
+ * @author tndoan
+ *
+ */
+public abstract class BaseOptimizer implements Optimizer {
+
+	protected double learningRate;
+
+	/**
+	 * learning rate of biases
+	 */
+	protected double biasLearningRate = 0.001;
+
+	/**
+	 * momentum of biases, 0 if there is no momentum
+	 */
+	protected double biasMomentum = 0.9;
+
+	/**
+	 * number of steps since the start of training
+	 */
+	protected int step = 0;
+
+	/**
+	 * number of state values of each parameter
+	 */
+	private int numStates;
+
+	/**
+	 * state arrays of each block. state.get(store)[s][p] is the s-th state value of flat position p
+	 */
+	private IdentityHashMap<FactorStore, double[][]> state = new IdentityHashMap<>();
+
+	/**
+	 * velocity of each bias
+	 */
+	private IdentityHashMap<FactorStore, double[]> velocity = new IdentityHashMap<>();
+
+	protected BaseOptimizer(double learningRate, int numStates) {
+		this.learningRate = learningRate;
+		this.numStates = numStates;
+	}
+
+	/**
+	 * set how biases are updated
+	 * @param learningRate	learning rate of biases
+	 * @param momentum		momentum of biases, 0 if there is no momentum
+	 */
+	public void setBias(double learningRate, double momentum) {
+		this.biasLearningRate = learningRate;
+		this.biasMomentum = momentum;
+	}
+
+	@Override
+	public void prepare(FactorStore... stores) {
+		state.clear();
+		velocity.clear();
+		for (FactorStore store : stores) {
+			state.put(store, new double[numStates][store.length()]);
+			velocity.put(store, new double[store.length()]);
+		}
+		step = 0;
+	}
+
+	@Override
+	public void nextStep() {
+		step++;
+	}
+
+	@Override
+	public void update(FactorStore store, int i, double[] grad) {
+		double[][] s = state.get(store);
+		int off = i * store.k();
+		for (int t = 0; t < store.k(); t++)
+			store.setFlat(off + t, store.getFlat(off + t) - delta(s, off + t, grad[t]));
+	}
+
+	@Override
+	public void updateBias(FactorStore store, int i, double grad) {
+		double[] v = velocity.get(store);
+		v[i] = biasMomentum * v[i] + grad;
+		store.setFlat(i, store.getFlat(i) - biasLearningRate * v[i]);
+	}
+
+	/**
+	 *
+	 * @param s		state arrays of the block
+	 * @param p		flat position of the parameter
+	 * @param g		gradient of the parameter
+	 * @return		value which is subtracted from the parameter. The state of p is updated
+	 */
+	protected abstract double delta(double[][] s, int p, double g);
+}
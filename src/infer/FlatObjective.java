@@ -0,0 +1,134 @@
+package infer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import main.Model;
+import main.Parameters;
+import object.FactorStore;
+import utils.ScratchBuffer;
+
+/**
+ * all biases and factors of a model seen as one flat vector, with the objective function and its gradient at any point.
+ * The vector is: user biases, user vectors, venue biases, venue intrinsic vectors, venue extrinsic vectors, each block in the order of its flat positions.
+ *
+ * The value is half of Model.objectiveFunc so that the gradient is the one of GradientCalculator.
+ * Gradients of all users and venues are computed in parallel on a dedicated pool.
+ * @author tndoan
+ *
+ */
+public class FlatObjective {
+
+	private Model m;
+
+	private ForkJoinPool pool;
+
+	private ResidualCache rc;
+
+	private GradientCalculator gc;
+
+	/**
+	 * blocks in the order of the flat vector
+	 */
+	private FactorStore[] stores;
+
+	/**
+	 * position of each block in the flat vector
+	 */
+	private int[] offsets;
+
+	/**
+	 * number of evaluations of value and gradient
+	 */
+	private int numEvaluations = 0;
+
+	/**
+	 * gradient of one vector before it is copied into the flat gradient
+	 */
+	private final ScratchBuffer buffer = new ScratchBuffer();
+
+	/**
+	 *
+	 * @param m				model
+	 * @param params		regularization parameters
+	 * @param numThreads	number of threads of the pool
+	 */
+	public FlatObjective(Model m, Parameters params, int numThreads) {
+		this.m = m;
+		this.pool = new ForkJoinPool(numThreads);
+		this.rc = pool.submit(() -> new ResidualCache(m)).join();
+		this.gc = new GradientCalculator(m, params, rc);
+
+		stores = new FactorStore[] {m.getUserBias(), m.getUserFactors(), m.getVenueBias(), m.getVenueIFactors(), m.getVenueEFactors()};
+		offsets = new int[stores.length + 1];
+		for (int i = 0; i < stores.length; i++)
+			offsets[i + 1] = offsets[i] + stores[i].length();
+	}
+
+	/**
+	 *
+	 * @return	length of the flat vector
+	 */
+	public int dimension() {
+		return offsets[stores.length];
+	}
+
+	/**
+	 * copy current parameters of the model into x
+	 * @param x	flat vector
+	 */
+	public void get(double[] x) {
+		for (int i = 0; i < stores.length; i++)
+			stores[i].copyTo(x, offsets[i]);
+	}
+
+	/**
+	 * copy x into parameters of the model
+	 * @param x	flat vector
+	 */
+	public void set(double[] x) {
+		for (int i = 0; i < stores.length; i++)
+			stores[i].copyFrom(x, offsets[i]);
+	}
+
+	/**
+	 * set parameters of the model to x then compute the objective function and its gradient
+	 * @param x		flat vector
+	 * @param grad	receives the gradient at x
+	 * @return		half of the objective function at x
+	 */
+	public double valueAndGradient(double[] x, double[] grad) {
+		set(x);
+		numEvaluations++;
+		return pool.submit(() -> {
+			rc.refreshAll();
+			int k = m.getK();
+			int numUsers = m.getNumUsers(), numVenues = m.getNumVenues();
+			IntStream.range(0, numUsers).parallel().forEach(u -> {
+				grad[offsets[0] + u] = gc.userBias(u);
+				System.arraycopy(gc.userGrad(u, buffer.get(k)), 0, grad, offsets[1] + u * k, k);
+			});
+			IntStream.range(0, numVenues).parallel().forEach(v -> {
+				grad[offsets[2] + v] = gc.venueBias(v);
+				System.arraycopy(gc.iVenueGrad(v, buffer.get(k)), 0, grad, offsets[3] + v * k, k);
+				System.arraycopy(gc.eVenueGrad(v, buffer.get(k)), 0, grad, offsets[4] + v * k, k);
+			});
+			return 0.5 * m.objectiveFunc(rc.sqrSum());
+		}).join();
+	}
+
+	/**
+	 *
+	 * @return	number of evaluations of value and gradient so far. Each one is a full pass over the data
+	 */
+	public int getNumEvaluations() {
+		return numEvaluations;
+	}
+
+	/**
+	 * stop the threads of the pool
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
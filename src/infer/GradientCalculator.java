@@ -1,17 +1,13 @@
 package infer;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Set;
-import java.util.stream.IntStream;
-
-import main.ModeSimilarity;
 import main.Model;
 import main.Parameters;
+import object.CheckinMatrix;
+import object.FactorStore;
 import object.UserObject;
 import object.VenueObject;
 import utils.Function;
-import utils.Similarity;
+import utils.ScratchBuffer;
 
 public class GradientCalculator {
 
@@ -22,245 +18,332 @@ public class GradientCalculator {
 	private int k;
 	
 	private boolean isFriend;
+	
+	private CheckinMatrix cks;
+	
+	/**
+	 * parameter blocks of the model when this calculator is created
+	 */
+	private FactorStore userF;
+	
+	private FactorStore venueI;
+	
+	private FactorStore venueE;
+	
+	/**
+	 * residuals of observed check-ins, null if they are computed when they are needed
+	 */
+	private ResidualCache cache;
+	
+	/**
+	 * inner products of the user vector and the extrinsic vectors of neighbors in the fused kernels
+	 */
+	private final ScratchBuffer neighborDots = new ScratchBuffer();
 
 	public GradientCalculator(Model model, Parameters params) {
+		this(model, params, null);
+	}
+	
+	/**
+	 * 
+	 * @param model		model
+	 * @param params	regularization parameters
+	 * @param cache		residuals of observed check-ins of model. The caller keeps them up to date when parameters change
+	 */
+	public GradientCalculator(Model model, Parameters params, ResidualCache cache) {
 		this.m = model;
 		this.p = params;
 		this.k = m.getK();
 		this.isFriend = m.isFriend();
+		this.cks = m.getCheckins();
+		this.userF = m.getUserFactors();
+		this.venueI = m.getVenueIFactors();
+		this.venueE = m.getVenueEFactors();
+		this.cache = cache;
+	}
+	
+	/**
+	 * 
+	 * @param pos	position in the check-in matrix
+	 * @param uId	user index of entry pos
+	 * @param vId	venue index of entry pos
+	 * @return		predicted minus actual number of check-ins of entry pos
+	 */
+	private double residual(int pos, int uId, int vId) {
+		if (cache != null)
+			return cache.get(pos);
+		return m.calculatePredictedCks(uId, vId) - cks.numCksAt(pos);
 	}
 
 	/**
 	 * 
-	 * @param uId
+	 * @param uId	user index
 	 * @return
 	 */
-	public double userBias(String uId) {
+	public double userBias(int uId) {
 		UserObject u = m.getUserObj(uId);
 		double diff = 0.0;
-		Set<String> allVenues = u.getAllVenues();
-		for (String vId : allVenues)
-			diff += m.calculatePredictedCks(uId, vId) - u.retrieveNumCks(vId);
+		for (int p = cks.rowStart(uId); p < cks.rowEnd(uId); p++)
+			diff += residual(p, uId, cks.venueAt(p));
 
 		return diff + u.getBias() * p.getLambda_2();
 	}
 	
 	/**
 	 * 
-	 * @param vId
+	 * @param vId	venue index
 	 * @return
 	 */
-	public double venueBias(String vId) {
+	public double venueBias(int vId) {
 		VenueObject v = m.getVenueObj(vId);
 		double diff = 0.0;
-		ArrayList<String> allUsers = v.getUserIds();
-		for (String uId : allUsers) {
-			double cks = m.getUserObj(uId).retrieveNumCks(vId);
-			diff += m.calculatePredictedCks(uId, vId) - cks;
-		}
+		for (int q = cks.colStart(vId); q < cks.colEnd(vId); q++)
+			diff += residual(cks.rowPosAt(q), cks.userAt(q), vId);
 		return diff + v.getBias() * p.getLambda_2();
 	}
 	
 	/**
 	 * Intrinsic characteristic of venue
-	 * @param vId
-	 * @param diff
+	 * @param vId	venue index
 	 * @return
 	 */
-	public double[] iVenueGrad(String vId) {
-		VenueObject v = m.getVenueObj(vId);
-		double[] result = new double[k];
-		System.arraycopy(v.getIFactors(), 0, result, 0, k);
-		IntStream.range(0, k).parallel().forEach(i -> result[i] *= p.getLambda_1());
-
-		ArrayList<String> users = v.getUserIds(); // list of users who make check-ins to this venue
-
-		for (String uId : users) {
-			UserObject u = m.getUserObj(uId);
-			double diff = m.calculatePredictedCks(uId, vId) - u.retrieveNumCks(vId);
-			double[] uVector = Arrays.copyOf(u.getFactors(), k);
+	public double[] iVenueGrad(int vId) {
+		return iVenueGrad(vId, new double[k]);
+	}
+	
+	/**
+	 * gradient of the intrinsic vector of a venue, without allocation
+	 * @param vId	venue index
+	 * @param out	vector of length k which receives the gradient
+	 * @return		out
+	 */
+	public double[] iVenueGrad(int vId, double[] out) {
+		venueI.copyTo(vId, out);
+		for (int t = 0; t < k; t++)
+			out[t] *= p.getLambda_1();
 
-			IntStream.range(0, k).parallel().forEach(i -> result[i] += uVector[i] * diff);
+		// users who make check-ins to this venue
+		for (int q = cks.colStart(vId); q < cks.colEnd(vId); q++) {
+			int uId = cks.userAt(q);
+			double diff = residual(cks.rowPosAt(q), uId, vId);
+			for (int t = 0; t < k; t++)
+				out[t] += diff * userF.get(uId, t);
 		}
 
-		return result;
+		return out;
 	}
 	
-	public double[] userGrad(String uId) {
-		double[] result = new double[k];
+	public double[] userGrad(int uId) {
+		return userGrad(uId, new double[k]);
+	}
+	
+	/**
+	 * gradient of the vector of a user, without allocation
+	 * @param uId	user index
+	 * @param out	vector of length k which receives the gradient
+	 * @return		out
+	 */
+	public double[] userGrad(int uId, double[] out) {
 		UserObject u = m.getUserObj(uId);
 		
-		double[] uFactors = u.getFactors();
-		IntStream.range(0, k).parallel().forEach(i -> result[i] = p.getLambda_1() * uFactors[i]); // regularization
+		for (int t = 0; t < k; t++)
+			out[t] = p.getLambda_1() * userF.get(uId, t); // regularization
 		
-		Set<String> venueIds = u.getAllVenues();
-		for (String venueId : venueIds) {
-			VenueObject v = m.getVenueObj(venueId);
-			double diff = m.calculatePredictedCks(uId, venueId) - u.retrieveNumCks(venueId);
-			
-			IntStream.range(0, k).parallel().forEach(i -> result[i] += diff * supUserGrad(u, v, i));
-//			for (int i = 0; i < k; i++)
-//				result[i] += diff * supUserGrad(u, v, i);
-			
+		for (int p = cks.rowStart(uId); p < cks.rowEnd(uId); p++) {
+			int venueId = cks.venueAt(p);
+			double diff = residual(p, uId, venueId);
+			addUserGrad(uId, venueId, diff, out);
 		}
 		
 		// TODO: friendship
-		ArrayList<String> lOfFriends = u.getListOfFriends();
+		int[] lOfFriends = u.getListOfFriends();
 		if (isFriend && lOfFriends != null) {
-
-			double[] diffFriend = new double[k];
-			for (int i = 0; i < k; i++)
-				diffFriend[i] = 0.0;
-
-			for (String friend : lOfFriends) {
-				UserObject fObj = m.getUserObj(friend);
-				if (fObj == null)
-					continue;
-				double[] fFactors = fObj.getFactors();
-				IntStream.range(0,  k).parallel().forEach(i -> diffFriend[i] += uFactors[i] - fFactors[i]);
+			double lambda_f = p.getLambda_f();
+			for (int friend : lOfFriends) {
+				for (int t = 0; t < k; t++)
+					out[t] += lambda_f * (userF.get(uId, t) - userF.get(friend, t));
 			}
-			IntStream.range(0, k).parallel().forEach(i -> result[i] += p.getLambda_f() * diffFriend[i]);
 		}
 		
-		return result;
+		return out;
 	}
 	
+	/**
+	 * t-th element of the gradient of the prediction of (u, v) with respect to the vector of u.
+	 * addUserGrad computes all elements in one pass over the neighbors
+	 * @param u	user
+	 * @param v	venue
+	 * @param t	index of element
+	 * @return
+	 */
 	public double supUserGrad(UserObject u, VenueObject v, int t) {
-		double result = 0.0;
-		
+		double[] result = new double[k];
+		addUserGrad(u.getIndex(), v.getIndex(), 1.0, result);
+		return result[t];
+	}
+	
+	/**
+	 * out += scale * gradient of the prediction of (uIdx, vIdx) with respect to the vector of user uIdx.
+	 * All k elements are computed in one pass over the neighbors of vIdx
+	 * @param uIdx	user index
+	 * @param vIdx	venue index
+	 * @param scale	scalar value
+	 * @param out	vector of length k
+	 */
+	public void addUserGrad(int uIdx, int vIdx, double scale, double[] out) {
 		double alpha = m.getAlpha();
 		boolean isSigmoid = m.isSigmoid();
-		int mode = m.getModeSim();
+		boolean isFastMath = m.isFastMath();
 		
-		double[] uFactor = u.getFactors();
-		ArrayList<String> neighborIds = v.getNeighbors();
-		double UiQj = Function.innerProduct(uFactor, v.getEFactors());
-		for (String neighborId : neighborIds) {
-			VenueObject neighbor = m.getVenueObj(neighborId);
-			double UiQk = Function.innerProduct(uFactor, neighbor.getEFactors());
+		int[] neighborIds = m.getVenueObj(vIdx).getNeighbors();
+		if (neighborIds.length == 0) { // the prediction has no neighbor term
+			for (int t = 0; t < k; t++)
+				out[t] += scale * venueI.get(vIdx, t);
+			return;
+		}
+		double[] weights = m.getSimilarityWeights()[vIdx];
+		double c = scale * m.getBeta() / ((double) neighborIds.length);
+		double UiQj = userF.dot(uIdx, venueE, vIdx);
+		
+		// each neighbor k adds a * (Qj - Qk) + b * Qk = a * Qj + (b - a) * Qk
+		double[] w = neighborDots.get(neighborIds.length);
+		userF.multiDot(uIdx, venueE, neighborIds, w);
+		double sumA = 0.0;
+		for (int j = 0; j < neighborIds.length; j++) {
+			double UiQk = w[j];
 			double comparison = UiQj - UiQk;
 			
-			double firstPart = alpha * UiQk; // first part
+			double a = alpha * UiQk; // first part
+			double g;
 			if (isSigmoid) {
-				double e = Math.exp(-comparison);
-				double temp = e / ((1.0 + e) * ( 1.0 + e));
-				firstPart *= temp * (v.getEFactors()[t] - neighbor.getEFactors()[t]);
-			} else 
-				firstPart *= Function.normal(comparison) * (v.getEFactors()[t] - neighbor.getEFactors()[t]);
-			
-			double secondPart = neighbor.getEFactors()[t]; // second part
-			
-			double sim = 0.0;
-			if (mode == ModeSimilarity.COSIN_CKS_SIM) 
-				sim = Similarity.cosinCheckinScore(neighborId, v.getId(), m);
-			else if (mode == ModeSimilarity.COSIN_DIST_SIM)
-				sim = Similarity.cosinDistanceScore(neighborId, v.getId(), m);
-			else //if (mode == ModeSimilarity.CONSTANT)
-				sim = 1.0;
-			
-			if (isSigmoid) 
-				secondPart *= (alpha * Function.sigmoidFunction(comparison) + (1.0 - alpha) * sim);
-			else
-				secondPart *= (alpha * Function.cdf(comparison) + (1.0 - alpha) * sim);
+				a *= Function.diffSigmoid(comparison, isFastMath);
+				g = Function.sigmoidFunction(comparison, isFastMath);
+			} else {
+				a *= Function.normal(comparison, isFastMath);
+				g = Function.cdf(comparison, isFastMath);
+			}
 			
-			result += firstPart + secondPart;
+			double b = alpha * g + (1.0 - alpha) * weights[j]; // second part
 			
-			if (Double.isNaN(secondPart))
-				System.out.println(neighborId);
+			sumA += a;
+			w[j] = c * (b - a); // the inner product is not needed anymore
 		}
-
-		result *= m.getBeta() / ((double) neighborIds.size());
-		result += v.getIFactors()[t];
-
-		return result;
+		venueE.addWeighted(neighborIds, w, out);
+		
+		for (int t = 0; t < k; t++)
+			out[t] += c * sumA * venueE.get(vIdx, t) + scale * venueI.get(vIdx, t);
 	}
 	
 	/**
 	 * 
-	 * @param vId
+	 * @param vId	venue index
 	 * @return
 	 */
-	public double[] eVenueGrad(String vId) {
-		VenueObject v = m.getVenueObj(vId);
-		
-		double[] result = new double[k];
-		System.arraycopy(v.getEFactors(), 0, result, 0, k);
-		IntStream.range(0, k).forEach(i -> result[i] *= p.getLambda_3());
+	public double[] eVenueGrad(int vId) {
+		return eVenueGrad(vId, new double[k]);
+	}
+	
+	/**
+	 * gradient of the extrinsic vector of a venue, without allocation
+	 * @param vId	venue index
+	 * @param out	vector of length k which receives the gradient
+	 * @return		out
+	 */
+	public double[] eVenueGrad(int vId, double[] out) {
+		venueE.copyTo(vId, out);
+		for (int t = 0; t < k; t++)
+			out[t] *= p.getLambda_3();
 		
-		ArrayList<String> users = v.getUserIds();
-		for (String uId : users) {
-			UserObject u = m.getUserObj(uId);
-			double diff = m.calculatePredictedCks(uId, vId) - u.retrieveNumCks(vId);
-			
-			IntStream.range(0, k).parallel().forEach(i -> result[i] += diff * gradRhatik(v, u, i));
+		for (int q = cks.colStart(vId); q < cks.colEnd(vId); q++) {
+			int uId = cks.userAt(q);
+			double diff = residual(cks.rowPosAt(q), uId, vId);
+			addOwnVenueGrad(uId, vId, diff, out);
 		}
 
-		ArrayList<String> neighborIds = v.getNeighbors();
-		for (String nId : neighborIds) {
-			VenueObject neighbor = m.getVenueObj(nId);
-			ArrayList<String> usersCksNeighbor = neighbor.getUserIds();
-			for (String uid : usersCksNeighbor) {
-				UserObject u = m.getUserObj(uid);
-				double diff = m.calculatePredictedCks(uid, nId) - u.retrieveNumCks(nId);
-
-				IntStream.range(0, k).parallel()
-						.forEach(i -> result[i] += diff * gradRhatij(neighbor, u, i, v.getEFactors(), vId));
+		// venues w whose predictions use the extrinsic vector of v, each with its own similarity to v
+		int[] reverse = m.getReverseNeighbors()[vId];
+		int[] positions = m.getReverseNeighborPositions()[vId];
+		double[][] weights = m.getSimilarityWeights();
+		for (int i = 0; i < reverse.length; i++) {
+			int w = reverse[i];
+			double sim = weights[w][positions[i]];
+			for (int q = cks.colStart(w); q < cks.colEnd(w); q++) {
+				int uid = cks.userAt(q);
+				double diff = residual(cks.rowPosAt(q), uid, w);
+				addNeighborVenueGrad(uid, w, vId, sim, diff, out);
 			}
 		}
 
-		return result;
+		return out;
 	}
 	
-	private double gradRhatij(VenueObject v, UserObject u, int t, double[] Qk, String id) {
-		double[] uFacotrs = u.getFactors();
-		double UiQk = Function.innerProduct(uFacotrs, Qk);
-		double result = m.getAlpha() * UiQk;
-
-		double comparison = Function.innerProduct(uFacotrs, v.getEFactors()) - UiQk;
+	/**
+	 * out += scale * gradient of the prediction of (uIdx, vIdx) with respect to the extrinsic vector of its neighbor id
+	 * @param uIdx	user index
+	 * @param vIdx	venue index
+	 * @param id	index of a neighbor of vIdx
+	 * @param sim	similarity of vIdx and id
+	 * @param scale	scalar value
+	 * @param out	vector of length k
+	 */
+	public void addNeighborVenueGrad(int uIdx, int vIdx, int id, double sim, double scale, double[] out) {
+		int numNeighbors = m.getVenueObj(vIdx).getNeighbors().length;
+		if (numNeighbors == 0) // the prediction has no neighbor term
+			return;
+		double alpha = m.getAlpha();
+		boolean isFastMath = m.isFastMath();
+		double UiQk = userF.dot(uIdx, venueE, id);
+		double result = alpha * UiQk;
 
-		double secondPart = 1.0 - m.getAlpha();
+		double comparison = userF.dot(uIdx, venueE, vIdx) - UiQk;
 
-		if (m.getModeSim() == ModeSimilarity.COSIN_CKS_SIM)
-			secondPart *= Similarity.cosinCheckinScore(v.getId(), id, m);
-		else if (m.getModeSim() == ModeSimilarity.COSIN_DIST_SIM)
-			secondPart *= Similarity.cosinDistanceScore(id, v.getId(), m);
-		else if (m.getModeSim() == ModeSimilarity.CONSTANT)
-			secondPart *= 1.0;
+		double secondPart = (1.0 - alpha) * sim;
 
 		if (m.isSigmoid()) {
-			double e = Math.exp(-comparison);
-			result *= (-e) * uFacotrs[t] / ((1 + e) * (1 + e));
-			secondPart += m.getAlpha() * Function.sigmoidFunction(comparison);
+			result *= -Function.diffSigmoid(comparison, isFastMath);
+			secondPart += alpha * Function.sigmoidFunction(comparison, isFastMath);
 		} else {
-			result *= (-uFacotrs[t] * Function.normal(comparison));
-			secondPart += m.getAlpha() * Function.cdf(comparison);
+			result *= -Function.normal(comparison, isFastMath);
+			secondPart += alpha * Function.cdf(comparison, isFastMath);
 		}
 
-		result += secondPart * uFacotrs[t];
-
-		result *= m.getBeta() / (double) v.getNeighbors().size();
-		return result;
+		// every element is the same scalar times the user vector
+		double c = scale * (result + secondPart) * m.getBeta() / (double) numNeighbors;
+		for (int t = 0; t < k; t++)
+			out[t] += c * userF.get(uIdx, t);
 	}
 
-	private double gradRhatik(VenueObject v, UserObject u, int t) {
+	/**
+	 * out += scale * gradient of the prediction of (uIdx, vIdx) with respect to the extrinsic vector of vIdx
+	 * @param uIdx	user index
+	 * @param vIdx	venue index
+	 * @param scale	scalar value
+	 * @param out	vector of length k
+	 */
+	public void addOwnVenueGrad(int uIdx, int vIdx, double scale, double[] out) {
 		double result = 0.0;
-		ArrayList<String> neighborIds = v.getNeighbors();
-		double[] uFactors = u.getFactors();
+		int[] neighborIds = m.getVenueObj(vIdx).getNeighbors();
+		if (neighborIds.length == 0) // the prediction has no neighbor term
+			return;
+		boolean isFastMath = m.isFastMath();
+		double UiQj = userF.dot(uIdx, venueE, vIdx);
+		double[] dots = neighborDots.get(neighborIds.length);
+		userF.multiDot(uIdx, venueE, neighborIds, dots);
 
-		for (String nId : neighborIds) {
-			VenueObject neighbor = m.getVenueObj(nId);
-			double UiQy = Function.innerProduct(uFactors, neighbor.getEFactors());
+		for (int j = 0; j < neighborIds.length; j++) {
+			double UiQy = dots[j];
 
-			double comparison = Function.innerProduct(uFactors, v.getEFactors()) - UiQy;
+			double comparison = UiQj - UiQy;
 			if (m.isSigmoid()) {
-				double e = Math.exp(-comparison);
-				result += (uFactors[t] * e * UiQy) / ((1.0 + e) * (1.0 + e)) ;
+				result += Function.diffSigmoid(comparison, isFastMath) * UiQy;
 			} else {
-				result += Function.normal(comparison) * uFactors[t] * UiQy;
+				result += Function.normal(comparison, isFastMath) * UiQy;
 			}
 		}
 
-		result *= m.getBeta() * m.getAlpha() / (double) neighborIds.size();
-		return result;
+		// every element is the same scalar times the user vector
+		double c = scale * result * m.getBeta() * m.getAlpha() / (double) neighborIds.length;
+		for (int t = 0; t < k; t++)
+			out[t] += c * userF.get(uIdx, t);
 	}
 }
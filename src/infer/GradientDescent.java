@@ -0,0 +1,19 @@
+package infer;
+
+/**
+ * plain gradient descent with a fixed learning rate. Biases have no momentum
+ * @author tndoan
+ *
+ */
+public class GradientDescent extends BaseOptimizer {
+
+	public GradientDescent(double learningRate) {
+		super(learningRate, 0);
+		setBias(learningRate, 0.0);
+	}
+
+	@Override
+	protected double delta(double[][] s, int p, double g) {
+		return learningRate * g;
+	}
+}
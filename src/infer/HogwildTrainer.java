@@ -0,0 +1,171 @@
+package infer;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import main.Model;
+import main.Parameters;
+import object.CheckinMatrix;
+import object.FactorStore;
+
+/**
+ * lock-free stochastic gradient descent (Hogwild). Many threads stream over the observed check-ins in a shuffled order
+ * and update the parameters of each check-in in place without locks. Check-in matrices are very sparse so two threads rarely update the same parameters.
+ *
+ * Regularization is lazy: a parameter is only regularized when one of its check-ins is processed,
+ * by 1 / (number of check-ins of its user or venue) of the full term. Over one epoch it adds up to the regularization of the objective function.
+ * @author tndoan
+ *
+ */
+public class HogwildTrainer {
+
+	private Model m;
+
+	private Parameters params;
+
+	private CheckinMatrix cks;
+
+	private GradientCalculator gc;
+
+	private ForkJoinPool pool;
+
+	private Random rand;
+
+	private int k;
+
+	/**
+	 * user index of each position of the check-in matrix
+	 */
+	private int[] userOf;
+
+	/**
+	 * positions of the check-in matrix in the order of the current epoch
+	 */
+	private int[] order;
+
+	/**
+	 * number of check-ins processed by one task
+	 */
+	private static final int CHUNK = 4096;
+
+	/**
+	 * gradient buffers of each thread: user, intrinsic, extrinsic and neighbor vectors
+	 */
+	private final ThreadLocal<double[][]> buffers;
+
+	/**
+	 *
+	 * @param m				model
+	 * @param params		regularization parameters
+	 * @param numThreads	number of threads
+	 * @param seed			seed of the shuffling
+	 */
+	public HogwildTrainer(Model m, Parameters params, int numThreads, long seed) {
+		this.m = m;
+		this.params = params;
+		this.cks = m.getCheckins();
+		this.gc = new GradientCalculator(m, params);
+		this.pool = new ForkJoinPool(numThreads);
+		this.rand = new Random(seed);
+		this.k = m.getK();
+		this.buffers = ThreadLocal.withInitial(() -> new double[4][k]);
+
+		userOf = new int[cks.nnz()];
+		order = new int[cks.nnz()];
+		for (int u = 0; u < cks.getNumUsers(); u++) {
+			for (int p = cks.rowStart(u); p < cks.rowEnd(u); p++) {
+				userOf[p] = u;
+				order[p] = p;
+			}
+		}
+	}
+
+	/**
+	 * process every observed check-in once in a new random order
+	 * @param learningRate	learning rate
+	 */
+	public void epoch(double learningRate) {
+		for (int i = order.length - 1; i > 0; i--) { // Fisher-Yates shuffle
+			int j = rand.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+
+		int numChunks = (order.length + CHUNK - 1) / CHUNK;
+		pool.submit(() -> IntStream.range(0, numChunks).parallel().forEach(c -> {
+			double[][] b = buffers.get();
+			int end = Math.min(order.length, (c + 1) * CHUNK);
+			for (int i = c * CHUNK; i < end; i++) {
+				int p = order[i];
+				update(userOf[p], cks.venueAt(p), cks.numCksAt(p), learningRate, b[0], b[1], b[2], b[3]);
+			}
+		})).join();
+	}
+
+	/**
+	 * one step of gradient descent on the loss of one check-in
+	 * @param u				user index
+	 * @param v				venue index
+	 * @param numCks		observed number of check-ins
+	 * @param learningRate	learning rate
+	 * @param uGrad			buffers of length k
+	 * @param iGrad
+	 * @param eGrad
+	 * @param nGrad
+	 */
+	private void update(int u, int v, double numCks, double learningRate,
+			double[] uGrad, double[] iGrad, double[] eGrad, double[] nGrad) {
+		FactorStore userBias = m.getUserBias(), userFactors = m.getUserFactors();
+		FactorStore venueBias = m.getVenueBias(), venueIFactors = m.getVenueIFactors(), venueEFactors = m.getVenueEFactors();
+
+		double diff = m.calculatePredictedCks(u, v) - numCks;
+		double uShare = 1.0 / (cks.rowEnd(u) - cks.rowStart(u));
+		double vShare = 1.0 / (cks.colEnd(v) - cks.colStart(v));
+
+		// all gradients are computed before the parameters of this check-in are changed
+		double uBiasGrad = diff + params.getLambda_2() * uShare * userBias.getFlat(u);
+		double vBiasGrad = diff + params.getLambda_2() * vShare * venueBias.getFlat(v);
+
+		for (int t = 0; t < k; t++) {
+			uGrad[t] = params.getLambda_1() * uShare * userFactors.get(u, t);
+			iGrad[t] = diff * userFactors.get(u, t) + params.getLambda_1() * vShare * venueIFactors.get(v, t);
+			eGrad[t] = params.getLambda_3() * vShare * venueEFactors.get(v, t);
+		}
+		gc.addUserGrad(u, v, diff, uGrad);
+		gc.addOwnVenueGrad(u, v, diff, eGrad);
+
+		int[] friends = m.getUserObj(u).getListOfFriends();
+		if (m.isFriend() && friends != null) {
+			double c = params.getLambda_f() * uShare;
+			for (int f : friends) {
+				for (int t = 0; t < k; t++)
+					uGrad[t] += c * (userFactors.get(u, t) - userFactors.get(f, t));
+			}
+		}
+
+		// gradient of a neighbor only depends on its own vector, the user vector and the vector of v, so it is applied at once
+		int[] neighbors = m.getVenueObj(v).getNeighbors();
+		double[] weights = m.getSimilarityWeights()[v];
+		for (int j = 0; j < neighbors.length; j++) {
+			for (int t = 0; t < k; t++)
+				nGrad[t] = 0.0;
+			gc.addNeighborVenueGrad(u, v, neighbors[j], weights[j], diff, nGrad);
+			venueEFactors.add(neighbors[j], -learningRate, nGrad);
+		}
+
+		userBias.setFlat(u, userBias.getFlat(u) - learningRate * uBiasGrad);
+		venueBias.setFlat(v, venueBias.getFlat(v) - learningRate * vBiasGrad);
+		userFactors.add(u, -learningRate, uGrad);
+		venueIFactors.add(v, -learningRate, iGrad);
+		venueEFactors.add(v, -learningRate, eGrad);
+	}
+
+	/**
+	 * stop the threads of the pool
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,136 @@
+package infer;
+
+/**
+ * limited-memory BFGS with a backtracking line search (Armijo condition).
+ * A pair of differences is only kept when its curvature is positive, and the memory is cleared when
+ * the search direction is not a descent direction, so it also works with gradients which are not exact
+ * @author tndoan
+ *
+ */
+public class LBFGS {
+
+	/**
+	 * number of pairs of differences kept
+	 */
+	private int memory;
+
+	/**
+	 * stop when the relative change of the objective function is smaller than it
+	 */
+	private double tolerance;
+
+	private static final double ARMIJO = 1e-4;
+
+	private static final int MAX_LINE_SEARCH = 30;
+
+	public LBFGS(int memory, double tolerance) {
+		this.memory = memory;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * minimize f starting from x
+	 * @param f				objective function
+	 * @param x				starting point. It receives the best point found
+	 * @param maxIterations	maximum number of iterations
+	 * @return				value of f at x
+	 */
+	public double minimize(FlatObjective f, double[] x, int maxIterations) {
+		int n = x.length;
+		double[][] s = new double[memory][n];
+		double[][] y = new double[memory][n];
+		double[] rho = new double[memory];
+		double[] alpha = new double[memory];
+		int numPairs = 0, newest = -1;
+
+		double[] g = new double[n];
+		double[] d = new double[n];
+		double[] xNew = new double[n];
+		double[] gNew = new double[n];
+		double fx = f.valueAndGradient(x, g);
+
+		for (int iter = 0; iter < maxIterations; iter++) {
+			// two-loop recursion: d = -H * g
+			for (int i = 0; i < n; i++)
+				d[i] = -g[i];
+			for (int j = 0; j < numPairs; j++) {
+				int p = (newest - j + memory) % memory;
+				alpha[p] = rho[p] * dot(s[p], d);
+				axpy(-alpha[p], y[p], d);
+			}
+			double gamma = numPairs > 0 ? dot(s[newest], y[newest]) / dot(y[newest], y[newest]) : 1.0 / Math.sqrt(dot(g, g));
+			for (int i = 0; i < n; i++)
+				d[i] *= gamma;
+			for (int j = numPairs - 1; j >= 0; j--) {
+				int p = (newest - j + memory) % memory;
+				double beta = rho[p] * dot(y[p], d);
+				axpy(alpha[p] - beta, s[p], d);
+			}
+
+			double slope = dot(g, d);
+			if (!(slope < 0)) { // not a descent direction: forget the curvature and follow the gradient
+				numPairs = 0;
+				double scale = 1.0 / Math.sqrt(dot(g, g));
+				for (int i = 0; i < n; i++)
+					d[i] = -scale * g[i];
+				slope = dot(g, d);
+			}
+
+			// backtracking line search
+			double step = 1.0, fNew = Double.NaN;
+			boolean isFound = false;
+			for (int t = 0; t < MAX_LINE_SEARCH; t++) {
+				for (int i = 0; i < n; i++)
+					xNew[i] = x[i] + step * d[i];
+				fNew = f.valueAndGradient(xNew, gNew);
+				if (fNew <= fx + ARMIJO * step * slope) {
+					isFound = true;
+					break;
+				}
+				step *= 0.5;
+			}
+			if (!isFound) {
+				f.set(x);
+				break;
+			}
+
+			// keep the new pair of differences if its curvature is positive
+			int p = (newest + 1) % memory;
+			for (int i = 0; i < n; i++) {
+				s[p][i] = xNew[i] - x[i];
+				y[p][i] = gNew[i] - g[i];
+			}
+			double sy = dot(s[p], y[p]);
+			if (sy > 1e-10) {
+				rho[p] = 1.0 / sy;
+				newest = p;
+				numPairs = Math.min(numPairs + 1, memory);
+			} else if (numPairs == memory)
+				numPairs--; // the oldest pair has been overwritten
+
+			System.arraycopy(xNew, 0, x, 0, n);
+			System.arraycopy(gNew, 0, g, 0, n);
+			double prev = fx;
+			fx = fNew;
+			System.out.println("Objective function: " + 2 * fx);
+			if (Math.abs(prev - fx) < tolerance * Math.abs(prev))
+				break;
+		}
+		return fx;
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double result = 0.0;
+		for (int i = 0; i < a.length; i++)
+			result += a[i] * b[i];
+		return result;
+	}
+
+	/**
+	 * y += a * x
+	 */
+	private static void axpy(double a, double[] x, double[] y) {
+		for (int i = 0; i < x.length; i++)
+			y[i] += a * x[i];
+	}
+}
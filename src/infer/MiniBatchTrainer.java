@@ -0,0 +1,327 @@
+package infer;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import main.Model;
+import main.Parameters;
+import object.CheckinMatrix;
+import object.FactorStore;
+
+/**
+ * mini-batch gradient descent. Observed check-ins are shuffled each epoch and cut into batches.
+ * Gradients of the check-ins of a batch, including the neighbor terms of their predictions, are computed in parallel
+ * into one accumulator per part of the batch. They are summed and applied once per batch by the optimizer.
+ *
+ * Accumulators only have room for the users and venues touched by a batch, so memory grows with the batch size and not with the data.
+ * Parts are summed in a fixed order, so the result only depends on the seed and the number of threads.
+ * Regularization is lazy like in HogwildTrainer: each check-in adds 1 / (number of check-ins of its user or venue) of the full term.
+ * @author tndoan
+ *
+ */
+public class MiniBatchTrainer {
+
+	private Model m;
+
+	private Parameters params;
+
+	private CheckinMatrix cks;
+
+	private GradientCalculator gc;
+
+	private Optimizer optimizer;
+
+	private ForkJoinPool pool;
+
+	private Random rand;
+
+	private int k;
+
+	private int batchSize;
+
+	/**
+	 * user index of each position of the check-in matrix
+	 */
+	private int[] userOf;
+
+	/**
+	 * positions of the check-in matrix in the order of the current epoch
+	 */
+	private int[] order;
+
+	/**
+	 * slot of each user or venue in the accumulators of the current batch, -1 if it is not touched
+	 */
+	private int[] userSlot, venueSlot;
+
+	/**
+	 * user or venue of each slot
+	 */
+	private int[] slotUser, slotVenue;
+
+	/**
+	 * true if the venue of a slot has check-ins in the batch. Otherwise only its extrinsic vector is touched, as a neighbor
+	 */
+	private boolean[] isObserved;
+
+	private int numUserSlots, numVenueSlots;
+
+	/**
+	 * one accumulator per part of a batch
+	 */
+	private Accumulator[] parts;
+
+	/**
+	 * buffers of each thread to sum the gradients of a slot: user or intrinsic vector, extrinsic vector
+	 */
+	private final ThreadLocal<double[][]> sums;
+
+	/**
+	 *
+	 * @param m				model
+	 * @param params		regularization parameters
+	 * @param batchSize		number of check-ins in a batch
+	 * @param optimizer		rule which turns the gradient of a batch into updates
+	 * @param numThreads	number of threads
+	 * @param seed			seed of the shuffling
+	 */
+	public MiniBatchTrainer(Model m, Parameters params, int batchSize, Optimizer optimizer, int numThreads, long seed) {
+		this.m = m;
+		this.params = params;
+		this.cks = m.getCheckins();
+		this.gc = new GradientCalculator(m, params);
+		this.optimizer = optimizer;
+		this.pool = new ForkJoinPool(numThreads);
+		this.rand = new Random(seed);
+		this.k = m.getK();
+		this.batchSize = batchSize;
+		this.sums = ThreadLocal.withInitial(() -> new double[2][k]);
+
+		userOf = new int[cks.nnz()];
+		order = new int[cks.nnz()];
+		for (int u = 0; u < cks.getNumUsers(); u++) {
+			for (int p = cks.rowStart(u); p < cks.rowEnd(u); p++) {
+				userOf[p] = u;
+				order[p] = p;
+			}
+		}
+
+		userSlot = new int[m.getNumUsers()];
+		venueSlot = new int[m.getNumVenues()];
+		Arrays.fill(userSlot, -1);
+		Arrays.fill(venueSlot, -1);
+		slotUser = new int[16];
+		slotVenue = new int[16];
+		isObserved = new boolean[16];
+
+		parts = new Accumulator[numThreads];
+		for (int c = 0; c < numThreads; c++)
+			parts[c] = new Accumulator();
+
+		optimizer.prepare(m.getUserBias(), m.getUserFactors(), m.getVenueBias(), m.getVenueIFactors(), m.getVenueEFactors());
+	}
+
+	/**
+	 * process every observed check-in once in a new random order
+	 */
+	public void epoch() {
+		for (int i = order.length - 1; i > 0; i--) { // Fisher-Yates shuffle
+			int j = rand.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+
+		for (int start = 0; start < order.length; start += batchSize)
+			batch(start, Math.min(order.length, start + batchSize));
+	}
+
+	/**
+	 * compute the gradient of order[start .. end - 1] and apply it
+	 */
+	private void batch(int start, int end) {
+		// give a slot to every touched user and venue
+		numUserSlots = numVenueSlots = 0;
+		for (int i = start; i < end; i++) {
+			int p = order[i];
+			int u = userOf[p], v = cks.venueAt(p);
+			if (userSlot[u] < 0)
+				userSlot[u] = newUserSlot(u);
+			if (venueSlot[v] < 0)
+				venueSlot[v] = newVenueSlot(v);
+			isObserved[venueSlot[v]] = true;
+			for (int n : m.getVenueObj(v).getNeighbors()) {
+				if (venueSlot[n] < 0)
+					venueSlot[n] = newVenueSlot(n);
+			}
+		}
+
+		// gradients of each part of the batch
+		int numParts = parts.length;
+		int length = end - start;
+		pool.submit(() -> IntStream.range(0, numParts).parallel().forEach(c -> {
+			Accumulator acc = parts[c];
+			acc.clear(numUserSlots, numVenueSlots);
+			int from = start + (int) ((long) length * c / numParts);
+			int to = start + (int) ((long) length * (c + 1) / numParts);
+			for (int i = from; i < to; i++) {
+				int p = order[i];
+				acc.add(userOf[p], cks.venueAt(p), cks.numCksAt(p));
+			}
+		})).join();
+
+		// sum the parts and apply
+		optimizer.nextStep();
+		FactorStore userBias = m.getUserBias(), userFactors = m.getUserFactors();
+		FactorStore venueBias = m.getVenueBias(), venueIFactors = m.getVenueIFactors(), venueEFactors = m.getVenueEFactors();
+		pool.submit(() -> IntStream.range(0, numUserSlots).parallel().forEach(s -> {
+			double[] g = sums.get()[0];
+			Arrays.fill(g, 0.0);
+			double b = 0.0;
+			for (Accumulator acc : parts) {
+				b += acc.userBias[s];
+				for (int t = 0; t < k; t++)
+					g[t] += acc.userFactors[s * k + t];
+			}
+			int u = slotUser[s];
+			optimizer.updateBias(userBias, u, b);
+			optimizer.update(userFactors, u, g);
+			userSlot[u] = -1;
+		})).join();
+		pool.submit(() -> IntStream.range(0, numVenueSlots).parallel().forEach(s -> {
+			double[] gi = sums.get()[0];
+			double[] ge = sums.get()[1];
+			Arrays.fill(gi, 0.0);
+			Arrays.fill(ge, 0.0);
+			double b = 0.0;
+			for (Accumulator acc : parts) {
+				b += acc.venueBias[s];
+				for (int t = 0; t < k; t++) {
+					gi[t] += acc.venueIFactors[s * k + t];
+					ge[t] += acc.venueEFactors[s * k + t];
+				}
+			}
+			int v = slotVenue[s];
+			if (isObserved[s]) {
+				optimizer.updateBias(venueBias, v, b);
+				optimizer.update(venueIFactors, v, gi);
+			}
+			optimizer.update(venueEFactors, v, ge);
+			venueSlot[v] = -1;
+			isObserved[s] = false;
+		})).join();
+	}
+
+	private int newUserSlot(int u) {
+		if (numUserSlots == slotUser.length)
+			slotUser = Arrays.copyOf(slotUser, 2 * numUserSlots);
+		slotUser[numUserSlots] = u;
+		return numUserSlots++;
+	}
+
+	private int newVenueSlot(int v) {
+		if (numVenueSlots == slotVenue.length) {
+			slotVenue = Arrays.copyOf(slotVenue, 2 * numVenueSlots);
+			isObserved = Arrays.copyOf(isObserved, 2 * numVenueSlots);
+		}
+		slotVenue[numVenueSlots] = v;
+		return numVenueSlots++;
+	}
+
+	/**
+	 * stop the threads of the pool
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * gradients of one part of a batch, indexed by slots
+	 */
+	private class Accumulator {
+		double[] userBias = new double[0];
+		double[] userFactors = new double[0];
+		double[] venueBias = new double[0];
+		double[] venueIFactors = new double[0];
+		double[] venueEFactors = new double[0];
+		double[] buffer = new double[k];
+
+		/**
+		 * make room for the slots of a batch and set everything to 0
+		 */
+		void clear(int numUsers, int numVenues) {
+			if (userBias.length < numUsers) {
+				userBias = new double[numUsers];
+				userFactors = new double[numUsers * k];
+			} else {
+				Arrays.fill(userBias, 0, numUsers, 0.0);
+				Arrays.fill(userFactors, 0, numUsers * k, 0.0);
+			}
+			if (venueBias.length < numVenues) {
+				venueBias = new double[numVenues];
+				venueIFactors = new double[numVenues * k];
+				venueEFactors = new double[numVenues * k];
+			} else {
+				Arrays.fill(venueBias, 0, numVenues, 0.0);
+				Arrays.fill(venueIFactors, 0, numVenues * k, 0.0);
+				Arrays.fill(venueEFactors, 0, numVenues * k, 0.0);
+			}
+		}
+
+		/**
+		 * add the gradient of the loss of one check-in
+		 * @param u			user index
+		 * @param v			venue index
+		 * @param numCks	observed number of check-ins
+		 */
+		void add(int u, int v, double numCks) {
+			FactorStore userF = m.getUserFactors(), venueI = m.getVenueIFactors(), venueE = m.getVenueEFactors();
+			double diff = m.calculatePredictedCks(u, v) - numCks;
+			double uShare = 1.0 / (cks.rowEnd(u) - cks.rowStart(u));
+			double vShare = 1.0 / (cks.colEnd(v) - cks.colStart(v));
+			int us = userSlot[u], vs = venueSlot[v];
+
+			userBias[us] += diff + params.getLambda_2() * uShare * m.getUserBias().getFlat(u);
+			venueBias[vs] += diff + params.getLambda_2() * vShare * m.getVenueBias().getFlat(v);
+
+			// user vector
+			Arrays.fill(buffer, 0.0);
+			gc.addUserGrad(u, v, diff, buffer);
+			for (int t = 0; t < k; t++)
+				buffer[t] += params.getLambda_1() * uShare * userF.get(u, t);
+			int[] friends = m.getUserObj(u).getListOfFriends();
+			if (m.isFriend() && friends != null) {
+				double c = params.getLambda_f() * uShare;
+				for (int f : friends) {
+					for (int t = 0; t < k; t++)
+						buffer[t] += c * (userF.get(u, t) - userF.get(f, t));
+				}
+			}
+			for (int t = 0; t < k; t++)
+				userFactors[us * k + t] += buffer[t];
+
+			// intrinsic and extrinsic vectors of the venue
+			for (int t = 0; t < k; t++) {
+				venueIFactors[vs * k + t] += diff * userF.get(u, t) + params.getLambda_1() * vShare * venueI.get(v, t);
+				venueEFactors[vs * k + t] += params.getLambda_3() * vShare * venueE.get(v, t);
+			}
+			Arrays.fill(buffer, 0.0);
+			gc.addOwnVenueGrad(u, v, diff, buffer);
+			for (int t = 0; t < k; t++)
+				venueEFactors[vs * k + t] += buffer[t];
+
+			// extrinsic vectors of its neighbors
+			int[] neighbors = m.getVenueObj(v).getNeighbors();
+			double[] weights = m.getSimilarityWeights()[v];
+			for (int j = 0; j < neighbors.length; j++) {
+				Arrays.fill(buffer, 0.0);
+				gc.addNeighborVenueGrad(u, v, neighbors[j], weights[j], diff, buffer);
+				int ns = venueSlot[neighbors[j]];
+				for (int t = 0; t < k; t++)
+					venueEFactors[ns * k + t] += buffer[t];
+			}
+		}
+	}
+}
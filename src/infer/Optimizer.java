@@ -0,0 +1,39 @@
+package infer;
+
+import object.FactorStore;
+
+/**
+ * rule which turns gradients into updates of parameters.
+ * State of an optimizer (for example moving averages of gradients) is kept per parameter in arrays aligned with the parameter blocks
+ * @author tndoan
+ *
+ */
+public interface Optimizer {
+
+	/**
+	 * make the state for the parameter blocks. It is called once before training
+	 * @param stores	all parameter blocks which are updated
+	 */
+	void prepare(FactorStore... stores);
+
+	/**
+	 * start a new step. Every parameter is updated at most once in a step
+	 */
+	void nextStep();
+
+	/**
+	 * update vector i of a block. Different threads can update different vectors at the same time
+	 * @param store	parameter block
+	 * @param i		index of vector
+	 * @param grad	gradient of vector i
+	 */
+	void update(FactorStore store, int i, double[] grad);
+
+	/**
+	 * update a bias. Different threads can update different biases at the same time
+	 * @param store	block of biases
+	 * @param i		index of bias
+	 * @param grad	gradient of bias i
+	 */
+	void updateBias(FactorStore store, int i, double grad);
+}
@@ -0,0 +1,31 @@
+package infer;
+
+/**
+ * RMSProp: the learning rate of each parameter is divided by the root of the moving average of its square gradients
+ * @author tndoan
+ *
+ */
+public class RMSProp extends BaseOptimizer {
+
+	private static final double EPSILON = 1e-8;
+
+	/**
+	 * weight of the past in the moving average
+	 */
+	private double decay;
+
+	public RMSProp(double learningRate) {
+		this(learningRate, 0.9);
+	}
+
+	public RMSProp(double learningRate, double decay) {
+		super(learningRate, 1);
+		this.decay = decay;
+	}
+
+	@Override
+	protected double delta(double[][] s, int p, double g) {
+		s[0][p] = decay * s[0][p] + (1.0 - decay) * g * g;
+		return learningRate * g / (Math.sqrt(s[0][p]) + EPSILON);
+	}
+}
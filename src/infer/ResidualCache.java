@@ -0,0 +1,162 @@
+package infer;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import main.Model;
+import object.CheckinMatrix;
+import utils.CompensatedSum;
+
+/**
+ * residual (predicted minus actual number of check-ins) of every observed check-in, aligned with the positions of the check-in matrix.
+ * It is filled in one parallel pass and kept up to date while parameters change during a sweep:
+ * <ul>
+ * <li>a change of bias is added to the residuals of its row or column,</li>
+ * <li>a change of user factors recomputes the row of the user,</li>
+ * <li>a change of venue factors marks columns as dirty. A dirty column is recomputed when one of its residuals is read.</li>
+ * </ul>
+ * The extrinsic factors of venue v are used in predictions of v and of all venues which have v as neighbor, so all their columns become dirty.
+ *
+ * Different threads can update rows of different users, or columns of different venues, at the same time.
+ * Residuals must only be read by many threads when no column is dirty (see refreshDirty).
+ * @author tndoan
+ *
+ */
+public class ResidualCache {
+
+	private Model m;
+
+	private CheckinMatrix cks;
+
+	/**
+	 * residual of each position of the check-in matrix (user-major)
+	 */
+	private double[] residual;
+
+	/**
+	 * true if residuals of the venue must be recomputed before they are read
+	 */
+	private boolean[] isDirty;
+
+	/**
+	 * venues whose list of neighbors contains each venue (see Model.getReverseNeighbors)
+	 */
+	private int[][] reverseNeighbors;
+
+	public ResidualCache(Model m) {
+		this.m = m;
+		this.cks = m.getCheckins();
+		this.residual = new double[cks.nnz()];
+		this.isDirty = new boolean[cks.getNumVenues()];
+
+		this.reverseNeighbors = m.getReverseNeighbors();
+
+		refreshAll();
+	}
+
+	/**
+	 * recompute all residuals in parallel
+	 */
+	public void refreshAll() {
+		IntStream.range(0, cks.getNumUsers()).parallel().forEach(u -> {
+			for (int p = cks.rowStart(u); p < cks.rowEnd(u); p++)
+				residual[p] = m.calculatePredictedCks(u, cks.venueAt(p)) - cks.numCksAt(p);
+		});
+		Arrays.fill(isDirty, false);
+	}
+
+	/**
+	 *
+	 * @param p	position in the check-in matrix (user-major)
+	 * @return	residual of entry p
+	 */
+	public double get(int p) {
+		int v = cks.venueAt(p);
+		if (isDirty[v])
+			refreshVenue(v);
+		return residual[p];
+	}
+
+	/**
+	 * bias of user u has been increased by delta
+	 * @param u		user index
+	 * @param delta	change of bias
+	 */
+	public void addToUser(int u, double delta) {
+		for (int p = cks.rowStart(u); p < cks.rowEnd(u); p++)
+			residual[p] += delta;
+	}
+
+	/**
+	 * bias of venue v has been increased by delta
+	 * @param v		venue index
+	 * @param delta	change of bias
+	 */
+	public void addToVenue(int v, double delta) {
+		if (isDirty[v])
+			return; // it is recomputed later anyway
+		for (int q = cks.colStart(v); q < cks.colEnd(v); q++)
+			residual[cks.rowPosAt(q)] += delta;
+	}
+
+	/**
+	 * factors of user u have been changed
+	 * @param u	user index
+	 */
+	public void refreshUser(int u) {
+		for (int p = cks.rowStart(u); p < cks.rowEnd(u); p++) {
+			int v = cks.venueAt(p);
+			if (!isDirty[v])
+				residual[p] = m.calculatePredictedCks(u, v) - cks.numCksAt(p);
+		}
+	}
+
+	/**
+	 * intrinsic factors of venue v have been changed
+	 * @param v	venue index
+	 */
+	public void iFactorsChanged(int v) {
+		isDirty[v] = true;
+	}
+
+	/**
+	 * extrinsic factors of venue v have been changed
+	 * @param v	venue index
+	 */
+	public void eFactorsChanged(int v) {
+		isDirty[v] = true;
+		for (int w : reverseNeighbors[v])
+			isDirty[w] = true;
+	}
+
+	/**
+	 * recompute residuals of venue v
+	 * @param v	venue index
+	 */
+	private void refreshVenue(int v) {
+		for (int q = cks.colStart(v); q < cks.colEnd(v); q++) {
+			int p = cks.rowPosAt(q);
+			residual[p] = m.calculatePredictedCks(cks.userAt(q), v) - cks.numCksAt(p);
+		}
+		isDirty[v] = false;
+	}
+
+	/**
+	 * recompute all dirty columns in parallel
+	 */
+	public void refreshDirty() {
+		IntStream.range(0, isDirty.length).parallel().forEach(v -> {
+			if (isDirty[v])
+				refreshVenue(v);
+		});
+	}
+
+	/**
+	 *
+	 * @return	sum of square of all residuals with compensated summation. Dirty columns are recomputed first
+	 */
+	public double sqrSum() {
+		refreshDirty();
+		return CompensatedSum.sum(residual.length, p -> residual[p] * residual[p]);
+	}
+}
@@ -0,0 +1,158 @@
+package infer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import main.Model;
+import main.Parameters;
+import object.FactorStore;
+import utils.CompensatedSum;
+
+/**
+ * run sweeps of gradient descent where users, then venues, are updated in parallel on a dedicated pool of threads.
+ *
+ * Each step of a sweep computes the gradients of all entities from the same parameters, then applies them.
+ * Gradients of one entity are always reduced by one thread in a fixed order, so the result does not depend on the number of threads.
+ * Steps of a sweep are: user biases, user vectors, venue biases, venue intrinsic vectors, venue extrinsic vectors.
+ * Residuals of all check-ins are brought up to date after each step.
+ * The regularization of each user and venue is recorded once its parameters are final in the sweep,
+ * so the objective function after a sweep only needs compensated sums of values which are already computed (see objective).
+ * @author tndoan
+ *
+ */
+public class TrainingScheduler {
+
+	private Model m;
+
+	private ForkJoinPool pool;
+
+	private ResidualCache rc;
+
+	private GradientCalculator gc;
+
+	private Optimizer optimizer;
+
+	/**
+	 * gradient of each user or venue in the current step. Arrays are reused by all steps
+	 */
+	private double[][] grads;
+
+	/**
+	 * gradient of the bias of each user or venue in the current step
+	 */
+	private double[] biasGrads;
+
+	/**
+	 * regularization of each user and venue after the last sweep (see Model.userRegularization and Model.venueRegularization)
+	 */
+	private double[] userLoss, venueLoss;
+
+	/**
+	 *
+	 * @param m				model
+	 * @param params		regularization parameters
+	 * @param numThreads	number of threads of the pool
+	 * @param optimizer		rule which turns gradients into updates
+	 */
+	public TrainingScheduler(Model m, Parameters params, int numThreads, Optimizer optimizer) {
+		this.m = m;
+		this.pool = new ForkJoinPool(numThreads);
+		this.rc = pool.submit(() -> new ResidualCache(m)).join();
+		this.gc = new GradientCalculator(m, params, rc);
+		this.grads = new double[Math.max(m.getNumUsers(), m.getNumVenues())][m.getK()];
+		this.biasGrads = new double[grads.length];
+		this.userLoss = new double[m.getNumUsers()];
+		this.venueLoss = new double[m.getNumVenues()];
+		this.optimizer = optimizer;
+		optimizer.prepare(m.getUserBias(), m.getUserFactors(), m.getVenueBias(), m.getVenueIFactors(), m.getVenueEFactors());
+	}
+
+	/**
+	 * update all parameters once
+	 */
+	public void sweep() {
+		FactorStore userBias = m.getUserBias(), userFactors = m.getUserFactors();
+		FactorStore venueBias = m.getVenueBias(), venueIFactors = m.getVenueIFactors(), venueEFactors = m.getVenueEFactors();
+		optimizer.nextStep();
+
+		// update user biases
+		int numUsers = m.getNumUsers();
+		forEach(numUsers, u -> biasGrads[u] = gc.userBias(u));
+		forEach(numUsers, u -> {
+			double old = userBias.getFlat(u);
+			optimizer.updateBias(userBias, u, biasGrads[u]);
+			rc.addToUser(u, userBias.getFlat(u) - old);
+		});
+
+		// update user vectors
+		forEach(numUsers, u -> gc.userGrad(u, grads[u]));
+		forEach(numUsers, u -> {
+			optimizer.update(userFactors, u, grads[u]);
+			rc.refreshUser(u);
+		});
+		forEach(numUsers, u -> userLoss[u] = m.userRegularization(u)); // friends of u are final too
+
+		// update venue biases
+		int numVenues = m.getNumVenues();
+		forEach(numVenues, v -> biasGrads[v] = gc.venueBias(v));
+		forEach(numVenues, v -> {
+			double old = venueBias.getFlat(v);
+			optimizer.updateBias(venueBias, v, biasGrads[v]);
+			rc.addToVenue(v, venueBias.getFlat(v) - old);
+		});
+
+		// update intrinsic characters
+		forEach(numVenues, v -> gc.iVenueGrad(v, grads[v]));
+		forEach(numVenues, v -> {
+			optimizer.update(venueIFactors, v, grads[v]);
+			rc.iFactorsChanged(v);
+		});
+		pool.submit(rc::refreshDirty).join();
+
+		// update extrinsic characters
+		forEach(numVenues, v -> gc.eVenueGrad(v, grads[v]));
+		forEach(numVenues, v -> {
+			optimizer.update(venueEFactors, v, grads[v]);
+			rc.eFactorsChanged(v);
+			venueLoss[v] = m.venueRegularization(v);
+		});
+		pool.submit(rc::refreshDirty).join();
+	}
+
+	/**
+	 *
+	 * @return	sum of square of errors of all observed check-ins with the current parameters
+	 */
+	public double sqrError() {
+		return pool.submit(rc::sqrSum).join();
+	}
+
+	/**
+	 *
+	 * @return	objective function (see Model.objectiveFunc) with the parameters of the last sweep
+	 */
+	public double objective() {
+		return pool.submit(() -> {
+			CompensatedSum result = new CompensatedSum();
+			result.add(rc.sqrSum());
+			result.add(CompensatedSum.sum(userLoss.length, u -> userLoss[u]));
+			result.add(CompensatedSum.sum(venueLoss.length, v -> venueLoss[v]));
+			return result.value();
+		}).join();
+	}
+
+	/**
+	 * stop the threads of the pool
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * run f(0), f(1), ..., f(n - 1) in parallel on the pool and wait for all of them
+	 */
+	private void forEach(int n, IntConsumer f) {
+		pool.submit(() -> IntStream.range(0, n).parallel().forEach(f)).join();
+	}
+}
@@ -0,0 +1,110 @@
+package main;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import infer.GradientDescent;
+import infer.HogwildTrainer;
+import infer.MiniBatchTrainer;
+import infer.TrainingScheduler;
+
+/**
+ * measure how many bytes are allocated by one steady-state pass of each way of training.
+ * Passes are first run a few times so that caches of similarity and scratch buffers are filled and the JIT is done.
+ * Only a constant number of bytes per pass is expected (tasks of the pools), nothing which grows with the number of users, venues or check-ins
+ * @author tndoan
+ *
+ */
+public class AllocationBenchmark {
+
+	private static final int WARM_UP = 3;
+
+	private static final int PASSES = 5;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 *
+	 * @return	number of bytes allocated so far by all living threads
+	 */
+	private static long allocatedBytes() {
+		long result = 0;
+		for (long b : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds()))
+			result += Math.max(b, 0);
+		return result;
+	}
+
+	/**
+	 * run pass WARM_UP times then PASSES times and print the number of bytes allocated by each of the last passes
+	 */
+	private static void measure(String name, Model m, Runnable pass) {
+		for (int i = 0; i < WARM_UP; i++)
+			pass.run();
+		long start = allocatedBytes();
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < PASSES; i++)
+			pass.run();
+		long bytes = (allocatedBytes() - start) / PASSES;
+		time = (System.currentTimeMillis() - time) / PASSES;
+		long entities = m.getNumUsers() + m.getNumVenues() + m.getCheckins().nnz();
+		System.out.println(name + ": " + bytes + " bytes per pass (" + ((double) bytes / entities)
+				+ " per user, venue or check-in), " + time + " ms per pass");
+	}
+
+	/**
+	 *
+	 * @param args	snapshot file (see utils.DatasetSnapshot) and mode of similarity (see ModeSimilarity).
+	 * 				If the file is not given, the files in test_data are used
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean isSigmoid = false;
+		int modeSim = args.length > 1 ? Integer.parseInt(args[1]) : ModeSimilarity.CONSTANT;
+		int k = 5;
+		double alpha = 0.5;
+		double beta = 0.5;
+		boolean isFriend = false;
+		Parameters params = new Parameters(0.01, 0.01, 0.01, 0.01);
+		int numThreads = Runtime.getRuntime().availableProcessors();
+
+		Model m;
+		if (args.length > 0) {
+			m = new Model(args[0], isSigmoid, modeSim, k, alpha, beta, isFriend, params);
+		} else {
+			String uFile = "test_data/u.txt";
+			String vFile = "test_data/v.txt";
+			String nFile = "test_data/neighbor";
+			String cksFile = "test_data/cks.txt";
+			m = new Model(uFile, vFile, nFile, null, cksFile, isSigmoid, modeSim, k, alpha, beta, isFriend, params);
+		}
+		System.out.println(m.getNumUsers() + " users, " + m.getNumVenues() + " venues, " + m.getCheckins().nnz() + " check-ins, "
+				+ numThreads + " threads");
+
+		// neither mode of Function allocates, so both are expected to allocate the same
+		for (boolean fastMath : new boolean[] {false, true}) {
+			m.setFastMath(fastMath);
+			String mode = fastMath ? " (fast math)" : "";
+
+			TrainingScheduler scheduler = new TrainingScheduler(m, params, numThreads, new GradientDescent(1e-4));
+			try {
+				measure("sweep" + mode, m, scheduler::sweep);
+			} finally {
+				scheduler.shutdown();
+			}
+
+			HogwildTrainer sgd = new HogwildTrainer(m, params, numThreads, 0);
+			try {
+				measure("Hogwild epoch" + mode, m, () -> sgd.epoch(1e-4));
+			} finally {
+				sgd.shutdown();
+			}
+
+			MiniBatchTrainer miniBatch = new MiniBatchTrainer(m, params, 1024, new GradientDescent(1e-4), numThreads, 0);
+			try {
+				measure("mini-batch epoch" + mode, m, miniBatch::epoch);
+			} finally {
+				miniBatch.shutdown();
+			}
+		}
+	}
+}
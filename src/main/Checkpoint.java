@@ -0,0 +1,234 @@
+package main;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import object.DirectFactorStore;
+import object.FactorStore;
+import utils.BinaryReader;
+import utils.BinaryWriter;
+
+/**
+ * binary checkpoint of a trained model. It replaces the text output of Model.savePrediction.
+ * 
+ * Format (little endian):
+ * MAGIC, VERSION, k, isSigmoid, isFastMath, modeSim, isFriend, number of users, number of venues, 
+ * fingerprint of user ids, fingerprint of venue ids,
+ * alpha, beta, lambda_1, lambda_2, lambda_3, lambda_f, mu,
+ * then the blocks (in the order of user or venue index): user bias, user factors (k per user), 
+ * venue bias, venue extrinsic factors, venue intrinsic factors.
+ * 
+ * Blocks are mapped without copying when the checkpoint is read. Version 1 has no isFastMath, which is read as false.
+ * @author tndoan
+ *
+ */
+public class Checkpoint {
+	
+	public static final int MAGIC = 0x4d435653; // "SVCM"
+	
+	public static final int VERSION = 2;
+	
+	int k;
+	boolean isSigmoid;
+	boolean isFastMath;
+	int modeSim;
+	boolean isFriend;
+	int numUsers;
+	int numVenues;
+	long userFingerprint;
+	long venueFingerprint;
+	double alpha;
+	double beta;
+	Parameters params;
+	double mu;
+	
+	DoubleBuffer userBias;
+	DoubleBuffer userFactors;
+	DoubleBuffer venueBias;
+	DoubleBuffer venueEFactors;
+	DoubleBuffer venueIFactors;
+	
+	private Checkpoint() {}
+	
+	/**
+	 * copy all parameters of the model and write them to file in a background thread. 
+	 * The model can be trained again as soon as this function returns
+	 * @param m			model
+	 * @param fname		name of checkpoint file
+	 * @return			future which completes when the file is written
+	 */
+	public static CompletableFuture<Void> writeAsync(Model m, String fname) {
+		Checkpoint c = copyOf(m);
+		return CompletableFuture.runAsync(() -> {
+			try {
+				c.write(fname);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+	
+	/**
+	 * write all parameters of the model to file
+	 * @param m			model
+	 * @param fname		name of checkpoint file
+	 * @throws IOException
+	 */
+	public static void write(Model m, String fname) throws IOException {
+		copyOf(m).write(fname);
+	}
+	
+	/**
+	 * 
+	 * @param m	model
+	 * @return	checkpoint whose blocks are copies of parameters of m
+	 */
+	private static Checkpoint copyOf(Model m) {
+		Checkpoint c = new Checkpoint();
+		c.k = m.k;
+		c.isSigmoid = m.isSigmoid;
+		c.isFastMath = m.isFastMath;
+		c.modeSim = m.modeSim;
+		c.isFriend = m.isFriend;
+		c.numUsers = m.users.length;
+		c.numVenues = m.venues.length;
+		c.userFingerprint = m.userDict.fingerprint();
+		c.venueFingerprint = m.venueDict.fingerprint();
+		c.alpha = m.alpha;
+		c.beta = m.beta;
+		c.params = m.params;
+		c.mu = m.mu;
+		
+		c.userBias = copyOf(m.getUserBias());
+		c.userFactors = copyOf(m.getUserFactors());
+		c.venueBias = copyOf(m.getVenueBias());
+		c.venueEFactors = copyOf(m.getVenueEFactors());
+		c.venueIFactors = copyOf(m.getVenueIFactors());
+		return c;
+	}
+	
+	private static DoubleBuffer copyOf(FactorStore store) {
+		double[] result = new double[store.length()];
+		store.copyTo(result, 0);
+		return DoubleBuffer.wrap(result);
+	}
+	
+	private void write(String fname) throws IOException {
+		try (BinaryWriter out = new BinaryWriter(fname)) {
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(k);
+			out.putInt(isSigmoid ? 1 : 0);
+			out.putInt(isFastMath ? 1 : 0);
+			out.putInt(modeSim);
+			out.putInt(isFriend ? 1 : 0);
+			out.putInt(numUsers);
+			out.putInt(numVenues);
+			out.putLong(userFingerprint);
+			out.putLong(venueFingerprint);
+			out.putDouble(alpha);
+			out.putDouble(beta);
+			out.putDouble(params.getLambda_1());
+			out.putDouble(params.getLambda_2());
+			out.putDouble(params.getLambda_3());
+			out.putDouble(params.getLambda_f());
+			out.putDouble(mu);
+			
+			out.putDoubles(userBias.array());
+			out.putDoubles(userFactors.array());
+			out.putDoubles(venueBias.array());
+			out.putDoubles(venueEFactors.array());
+			out.putDoubles(venueIFactors.array());
+		}
+	}
+	
+	/**
+	 * read the checkpoint file. Blocks are read-only views of the mapped file
+	 * @param fname		name of checkpoint file
+	 * @return			checkpoint
+	 * @throws IOException	if the file is not a checkpoint or its version is not supported
+	 */
+	public static Checkpoint read(String fname) throws IOException {
+		Checkpoint c = new Checkpoint();
+		try (BinaryReader in = new BinaryReader(fname)) {
+			if (in.getInt() != MAGIC)
+				throw new IOException(fname + " is not a model checkpoint");
+			int version = in.getInt();
+			if (version != VERSION && version != 1)
+				throw new IOException("unsupported version of model checkpoint: " + version);
+			c.k = in.getInt();
+			c.isSigmoid = in.getInt() == 1;
+			c.isFastMath = version > 1 && in.getInt() == 1;
+			c.modeSim = in.getInt();
+			c.isFriend = in.getInt() == 1;
+			c.numUsers = in.getInt();
+			c.numVenues = in.getInt();
+			c.userFingerprint = in.getLong();
+			c.venueFingerprint = in.getLong();
+			c.alpha = in.getDouble();
+			c.beta = in.getDouble();
+			double lambda1 = in.getDouble();
+			double lambda2 = in.getDouble();
+			double lambda3 = in.getDouble();
+			double lambdaf = in.getDouble();
+			c.params = new Parameters(lambda1, lambda2, lambda3, lambdaf);
+			c.mu = in.getDouble();
+			
+			c.userBias = in.mapDoubles(c.numUsers);
+			c.userFactors = in.mapDoubles(c.numUsers * c.k);
+			c.venueBias = in.mapDoubles(c.numVenues);
+			c.venueEFactors = in.mapDoubles(c.numVenues * c.k);
+			c.venueIFactors = in.mapDoubles(c.numVenues * c.k);
+		}
+		return c;
+	}
+	
+	/**
+	 * 
+	 * @param fname		name of file
+	 * @return			true if the file starts with the magic number of checkpoint
+	 * @throws IOException
+	 */
+	public static boolean isCheckpoint(String fname) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fname))) {
+			return Integer.reverseBytes(in.readInt()) == MAGIC;
+		} catch (java.io.EOFException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * set the hyperparameters of model, except mu, from the header of checkpoint. It must be called before the data is loaded
+	 * @param m	model
+	 */
+	void applyHeader(Model m) {
+		m.k = k;
+		m.isSigmoid = isSigmoid;
+		m.isFastMath = isFastMath;
+		m.modeSim = modeSim;
+		m.isFriend = isFriend;
+		m.alpha = alpha;
+		m.beta = beta;
+		m.params = params;
+	}
+	
+	/**
+	 * set mu, biases and factors of all users and venues of the model from the checkpoint
+	 * @param m	model whose data has been loaded
+	 * @throws IOException	if the checkpoint was not trained on the same users and venues
+	 */
+	void applyParameters(Model m) throws IOException {
+		if (numUsers != m.users.length || numVenues != m.venues.length 
+				|| userFingerprint != m.userDict.fingerprint() || venueFingerprint != m.venueDict.fingerprint())
+			throw new IOException("checkpoint does not match the users and venues of the data");
+		m.mu = mu;
+		
+		// the mapped blocks are used as they are. They are read-only, Model.setStorage makes writable copies of them
+		m.setStores(new DirectFactorStore(userBias, numUsers, 1), new DirectFactorStore(userFactors, numUsers, k), 
+				new DirectFactorStore(venueBias, numVenues, 1), new DirectFactorStore(venueIFactors, numVenues, k), 
+				new DirectFactorStore(venueEFactors, numVenues, k));
+	}
+}
@@ -10,4 +10,5 @@ public class ModeSimilarity {
 	public static final int COSIN_DIST_SIM = 2;
 	public static final int CONSTANT = 3; // the similarity is always 1
 	public static final int COSIN = 4;
+	public static final int APPROX_CKS_SIM = 5; // like COSIN_CKS_SIM, estimated by signatures for popular venues (see utils.CheckinSketch)
 }
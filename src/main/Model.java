@@ -5,18 +5,33 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
+import infer.FlatObjective;
 import infer.GradientCalculator;
+import infer.GradientDescent;
+import infer.HogwildTrainer;
+import infer.LBFGS;
+import infer.MiniBatchTrainer;
+import infer.Optimizer;
+import infer.TrainingScheduler;
+import object.CheckinMatrix;
+import object.Dataset;
+import object.FactorStore;
 import object.PointObject;
 import object.UserObject;
 import object.VenueObject;
+import utils.CheckinSketch;
+import utils.CompensatedSum;
+import utils.DatasetSnapshot;
+import utils.Distance;
 import utils.Function;
-import utils.ReadFile;
+import utils.IdDictionary;
+import utils.ScratchBuffer;
 import utils.Similarity;
+import utils.SimilarityCache;
 import utils.Utils;
 
 public class Model {
@@ -31,6 +46,23 @@ public class Model {
 		return isSigmoid;
 	}
 
+	/**
+	 * true if sigmoid and cdf are approximated (see Function). The accuracy is checked by FunctionAccuracy
+	 */
+	protected boolean isFastMath;
+	
+	public boolean isFastMath() {
+		return isFastMath;
+	}
+	
+	/**
+	 * switch the fast mode of sigmoid and cdf on or off. It only changes this model
+	 * @param fastMath	true if approximations are used
+	 */
+	public void setFastMath(boolean fastMath) {
+		this.isFastMath = fastMath;
+	}
+
 	/**
 	 * modeSim is in class ModeSimilarity class
 	 */
@@ -95,20 +127,145 @@ public class Model {
 	protected double mu;
 	
 	/**
-	 * key is venue id, value is venue object corresponding to the venue id
+	 * dictionary of venue ids. Venue whose index is i is venues[i]
+	 */
+	protected IdDictionary venueDict;
+	
+	/**
+	 * dictionary of user ids. User whose index is i is users[i]
+	 */
+	protected IdDictionary userDict;
+	
+	/**
+	 * check-in matrix of training. Rows are users, columns are venues
+	 */
+	protected CheckinMatrix cks;
+	
+	/**
+	 * venue objects indexed by venue index
+	 */
+	protected VenueObject[] venues;
+	
+	/**
+	 * user objects indexed by user index
+	 */
+	protected UserObject[] users;
+	
+	/**
+	 * where the parameter blocks below are stored. With FLOAT only factor vectors are in float, biases stay in double
 	 */
-	protected HashMap<String, VenueObject> venueMap;
+	protected FactorStore.Storage storage = FactorStore.Storage.HEAP;
 	
 	/**
-	 * key is user id, value is user object corresponding to user id
+	 * bias of all users. User and venue objects are views into these blocks
 	 */
-	protected HashMap<String, UserObject> userMap;
+	protected FactorStore userBias;
 	
 	/**
-	 * check-in map of training
-	 * key is user id, value is the map whose key is venue id, value is the number of check-in between user and venue
+	 * latent factor vectors of all users
 	 */
-	protected HashMap<String, HashMap<String, Double>> cksMap;
+	protected FactorStore userFactors;
+	
+	/**
+	 * bias of all venues
+	 */
+	protected FactorStore venueBias;
+	
+	/**
+	 * intrinsic characteristic vectors of all venues
+	 */
+	protected FactorStore venueIFactors;
+	
+	/**
+	 * extrinsic characteristic vectors of all venues
+	 */
+	protected FactorStore venueEFactors;
+	
+	/**
+	 * number of threads used by optimization
+	 */
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * rule which turns gradients into updates in optimization
+	 */
+	protected Optimizer optimizer = new GradientDescent(0.001);
+	
+	/**
+	 * maximum number of iterations of optimization
+	 */
+	protected int maxIterations = 20;
+	
+	/**
+	 * friends of each user whose distance is in the friend regularization. 
+	 * A friend is only counted for the first user (by index) who has it in its list
+	 */
+	protected int[][] countedFriends;
+	
+	/**
+	 * positions of the check-in matrix on which the error is estimated by calculateRMSE, null if all check-ins are used
+	 */
+	protected int[] lossSample;
+	
+	/**
+	 * user index of each position of lossSample
+	 */
+	protected int[] lossSampleUsers;
+	
+	/**
+	 * similarity of each venue with each of its neighbors for modeSim (see Similarity.edgeWeights), null until it is needed
+	 */
+	private volatile double[][] similarityWeights;
+	
+	/**
+	 * mode of similarity of similarityWeights
+	 */
+	private int similarityWeightsMode;
+	
+	/**
+	 * signatures of popular venues for ModeSimilarity.APPROX_CKS_SIM, null until it is needed
+	 */
+	private volatile CheckinSketch checkinSketch;
+	
+	/**
+	 * standard error of the cosines estimated by checkinSketch
+	 */
+	private double sketchError = CheckinSketch.DEFAULT_ERROR;
+	
+	/**
+	 * venues with at most this number of users are compared exactly by checkinSketch
+	 */
+	private int sketchExactMaxUsers = CheckinSketch.DEFAULT_EXACT_MAX_USERS;
+	
+	/**
+	 * distance between the user and the venue of each position of the check-in matrix, null until it is needed
+	 */
+	private volatile double[] checkinDistances;
+	
+	/**
+	 * venues whose list of neighbors contains each venue, in increasing order, null until it is needed
+	 */
+	private volatile int[][] reverseNeighbors;
+	
+	/**
+	 * position of each venue in the list of neighbors of each of its reverse neighbors
+	 */
+	private int[][] reverseNeighborPositions;
+	
+	/**
+	 * lock of checkinSketch, checkinDistances and reverseNeighbors. It is not the model, because they are built while the model computes similarityWeights
+	 */
+	private final Object lazyLock = new Object();
+	
+	/**
+	 * inner products of the user vector and the extrinsic vectors of neighbors in calculatePredictedCks
+	 */
+	private final ScratchBuffer neighborDots = new ScratchBuffer();
+	
+	/**
+	 * inner products of the user vector and the extrinsic vectors of all venues in calculatePredictedCks(uIdx, out)
+	 */
+	private final ScratchBuffer venueDots = new ScratchBuffer();
 	
 	public Model(){} // add this to remove the error of construction in Prediction.java
 
@@ -130,7 +287,8 @@ public class Model {
 	public Model(String uFile, String vFile, String nFile, String fFile, String cksFile, boolean isSigmoid, int modeSim, int k, 
 			double alpha, double beta, boolean isFriend, Parameters params) {
 		assert(modeSim == ModeSimilarity.COSIN || modeSim == ModeSimilarity.COSIN_CKS_SIM 
-				|| modeSim == ModeSimilarity.COSIN_DIST_SIM || modeSim == ModeSimilarity.CONSTANT);
+				|| modeSim == ModeSimilarity.COSIN_DIST_SIM || modeSim == ModeSimilarity.CONSTANT
+				|| modeSim == ModeSimilarity.APPROX_CKS_SIM);
 		assert(alpha >= 0 && alpha <= 1 );
 		assert(beta >= 0 && beta <= 1);
 		this.modeSim = modeSim;
@@ -141,173 +299,234 @@ public class Model {
 		this.isFriend = isFriend;
 		this.params = params;
 
-		// initialize 
-		venueMap = new HashMap<>();
-		userMap = new HashMap<>();
-
-		// read data from files
-		HashMap<String, String> vInfo = ReadFile.readLocation(vFile);
-
-		HashMap<String, String> uInfo = new HashMap<>(); 
-		if (uFile != null)
-			uInfo = ReadFile.readLocation(uFile);
-
-		HashMap<String, ArrayList<String>> neighborsInfo = ReadFile.readNeighbors(nFile);
-
-		HashMap<String, ArrayList<String>> friendInfo = new HashMap<>();
-
-		if (isFriend)
-			friendInfo = ReadFile.readFriendship(fFile);			
-
-		this.cksMap = ReadFile.readNumCksFile(cksFile);
+		loadData(uFile, vFile, nFile, fFile, cksFile);
+		this.mu = calculateMu(cks);
+		getSimilarityWeights();
+	}
+	
+	/**
+	 * create model from a dataset snapshot (see utils.DatasetSnapshot)
+	 * @param snapshotFile	file name of dataset snapshot
+	 * @param isSigmoid		use sigmoid or cdf
+	 * @param modeSim		the mode of similarity
+	 * @param k				number of latent factors
+	 * @param alpha			alpha parameter. It must be between 0 and 1
+	 * @param beta			beta parameter. It must be between 0 and 1
+	 * @param isFriend		indicate if we want to use friend or not
+	 * @param params		object that contains all regularization parameters
+	 * @throws IOException 
+	 */
+	public Model(String snapshotFile, boolean isSigmoid, int modeSim, int k, 
+			double alpha, double beta, boolean isFriend, Parameters params) throws IOException {
+		assert(alpha >= 0 && alpha <= 1 );
+		assert(beta >= 0 && beta <= 1);
+		this.modeSim = modeSim;
+		this.isSigmoid = isSigmoid;
+		this.k = k;
+		this.alpha = alpha;
+		this.beta = beta;
+		this.isFriend = isFriend;
+		this.params = params;
 
-		HashMap<String, ArrayList<String>> userOfVenueMap = Utils.collectUsers(cksMap);
+		loadData(DatasetSnapshot.load(snapshotFile));
+		this.mu = calculateMu(cks);
+		getSimilarityWeights();
+	}
+	
+	/**
+	 * read data from files and make all user and venue objects. 
+	 * k and isFriend must be set before calling this function
+	 * @param uFile		file name of location of users
+	 * @param vFile		file name of location of venues
+	 * @param nFile		file name of neighbors of each venue
+	 * @param fFile		file name of friendship
+	 * @param cksFile	file name of check-ins information
+	 */
+	protected void loadData(String uFile, String vFile, String nFile, String fFile, String cksFile) {
+		loadData(Dataset.fromText(uFile, vFile, nFile, isFriend ? fFile : null, cksFile));
+	}
+	
+	/**
+	 * make all user and venue objects from the dataset. 
+	 * k and isFriend must be set before calling this function
+	 * @param d		dataset
+	 */
+	protected void loadData(Dataset d) {
+		venueDict = d.getVenueDict();
+		userDict = d.getUserDict();
+		this.cks = d.getCheckins();
 
-		this.mu = calculateMu(cksMap);
+		int[][] friendInfo = d.getFriends();
+		if (!isFriend || friendInfo == null)
+			friendInfo = new int[userDict.size()][];
 
-		Set<String> allUsers = cksMap.keySet();
-		if (uFile != null)
-			allUsers = uInfo.keySet();
+		// parameter blocks
+		userBias = FactorStore.create(biasStorage(), userDict.size(), 1);
+		userFactors = FactorStore.create(storage, userDict.size(), k);
+		venueBias = FactorStore.create(biasStorage(), venueDict.size(), 1);
+		venueIFactors = FactorStore.create(storage, venueDict.size(), k);
+		venueEFactors = FactorStore.create(storage, venueDict.size(), k);
 
 		// making user objects
-		for(String userId : allUsers){
-			// parse the location of users
-			PointObject location = null;
-			if (uFile != null) {
-				String locInfo = uInfo.get(userId); // in this context, we know the location of every users
-				location = new PointObject(locInfo);
-			}
-
-			HashMap<String, Double> checkinMap = cksMap.get(userId);
-
-			UserObject uo = new UserObject(userId, location, checkinMap, k, friendInfo.get(userId));
-			userMap.put(userId, uo);
-		}
+		PointObject[] uInfo = d.getUserLocations();
+		users = new UserObject[userDict.size()];
+		for (int u = 0; u < users.length; u++)
+			users[u] = new UserObject(userDict.getId(u), u, uInfo[u], cks, userBias, userFactors, friendInfo[u]);
 
 		// making venue objects
-		for (String venueId : vInfo.keySet()) {
-			// location
-			String locInfo = vInfo.get(venueId);
-			PointObject location = new PointObject(locInfo);
-
-			// users who cks in this venue
-			ArrayList<String> users = userOfVenueMap.get(venueId);
-
-			if (users == null)
-				continue; // we dont care this case because this venue has no check-ins
-			
-			// total number of cks
-			int cks = 0;
-			for (String user : users) 
-				cks += userMap.get(user).retrieveNumCks(venueId);
-
-			// neighbors
-			ArrayList<String> neighbors = neighborsInfo.get(venueId);
-			
-			
-			VenueObject vo = new VenueObject(venueId, cks, location, neighbors, users, k);
-			venueMap.put(venueId, vo);
-		}
+		PointObject[] vInfo = d.getVenueLocations();
+		int[][] neighborsInfo = d.getNeighbors();
+		venues = new VenueObject[venueDict.size()];
+		for (int v = 0; v < venues.length; v++)
+			venues[v] = new VenueObject(venueDict.getId(v), v, vInfo[v], neighborsInfo[v], cks, venueBias, venueIFactors, venueEFactors);
 
-		// initialize the similarity cache
-		Similarity.initialize();
+		countedFriends = isFriend ? countFriends(friendInfo) : null;
+		lossSample = null;
+		similarityWeights = null;
+		checkinSketch = null;
+		checkinDistances = null;
+		reverseNeighbors = null;
 	}
 	
 	/**
-	 * get the average check-ins between users and venues
-	 * @param cksMap	check-in map
-	 * @return			the average number of check-ins
+	 * 
+	 * @param friendInfo	friends of each user, null if a user has no friend
+	 * @return				friends of each user which are counted in the friend regularization
 	 */
-	private double calculateMu(HashMap<String, HashMap<String, Double>> cksMap) {
-		double totalPairs = 0.0;
-		double totalCks = 0.0;
-		
-		for (String userId : cksMap.keySet()) {
-			HashMap<String, Double> map = cksMap.get(userId);
-			for (String venueId : map.keySet()) {
-				totalCks += map.get(venueId);
-				totalPairs++;
+	private static int[][] countFriends(int[][] friendInfo) {
+		boolean[] processedUsers = new boolean[friendInfo.length];
+		int[][] result = new int[friendInfo.length][];
+		for (int u = 0; u < friendInfo.length; u++) {
+			int[] friends = friendInfo[u] == null ? new int[0] : friendInfo[u];
+			int n = 0;
+			int[] counted = new int[friends.length];
+			for (int fId : friends) {
+				if (processedUsers[fId]) // the pair (u, fId) has been processed before
+					continue;
+				processedUsers[fId] = true; // we dont want to process this pair latter
+				counted[n++] = fId;
 			}
+			result[u] = Arrays.copyOf(counted, n);
 		}
-
-		return totalCks / totalPairs;
+		return result;
+	}
+	
+	/**
+	 * get the average check-ins between users and venues
+	 * @param cks	check-in matrix
+	 * @return		the average number of check-ins
+	 */
+	private double calculateMu(CheckinMatrix cks) {
+		return cks.totalCks() / (double) cks.nnz();
 	}
 
 	/**
 	 * calculate the RMSE of our prediction and actual result
-	 * @return	the RMSE
+	 * @return	the sum of square of errors, estimated from a sample of check-ins if setLossSample is used
 	 */
-	private double calculateRMSE() {
-		double result = 0.0;
-		Set<String> allUserIds = userMap.keySet();
+	double calculateRMSE() {
+		if (lossSample != null) {
+			double sampled = CompensatedSum.sum(lossSample.length, i -> {
+				int p = lossSample[i];
+				double diff = cks.numCksAt(p) - calculatePredictedCks(lossSampleUsers[i], cks.venueAt(p));
+				return diff * diff;
+			});
+			return sampled * cks.nnz() / lossSample.length;
+		}
 		
-		for (String uId : allUserIds) {
-			HashMap<String, Double> vM = cksMap.get(uId);
-			for (String vId : vM.keySet()) {
-				double diff = vM.get(vId) - calculatePredictedCks(uId, vId);
+		return CompensatedSum.sum(users.length, u -> {
+			double result = 0.0;
+			for (int p = cks.rowStart(u); p < cks.rowEnd(u); p++) {
+				double diff = cks.numCksAt(p) - calculatePredictedCks(u, cks.venueAt(p));
 				result += diff * diff;
 			}
-		}
-
-		return result;
+			return result;
+		});
 	}
 	
-	private double objectiveFunc() { // we dont multiply to 1/2 because it is not necessary
-		double result = calculateRMSE();
-		
-		// user regularization
-		Collection<UserObject> allUsers = userMap.values();
-		double uReg = 0.0;
-		double rB = 0.0; // bias regularization
-		for (UserObject u : allUsers) {
-			double[] vector = u.getFactors();
-			uReg += Function.innerProduct(vector, vector);
-			rB += u.getBias() * u.getBias();
+	/**
+	 * estimate the error of objectiveFunc() on a random sample of check-ins instead of all of them, for very large data.
+	 * The sample is drawn once, so changes of the estimate between iterations come from the parameters and not from sampling.
+	 * Training with optimization() is not affected because it gets the error of all check-ins from its sweeps
+	 * @param sampleSize	number of check-ins in the sample, 0 to use all check-ins
+	 * @param seed			seed of the sample
+	 */
+	public void setLossSample(int sampleSize, long seed) {
+		int nnz = cks.nnz();
+		if (sampleSize <= 0 || sampleSize >= nnz) {
+			lossSample = null;
+			lossSampleUsers = null;
+			return;
 		}
-		result += params.getLambda_1() * uReg + params.getLambda_2() * rB;
 		
-		// venue regularization
-		Collection<VenueObject> allVenues = venueMap.values();
-		double vReg = 0.0; // regularization for intrinsic characteristic vector 
-		double eVReg = 0.0; // regularization for extrinsic characteristic vector
-		double rB_j = 0.0; // venue bias regularization
-		for (VenueObject v : allVenues) {
-			double[] eVector = v.getEFactors();
-			double[] iVector = v.getIFactors();
-			
-			eVReg += Function.innerProduct(eVector, eVector);
-			vReg += Function.innerProduct(iVector, iVector);
-			rB_j += v.getBias() * v.getBias();
+		// first sampleSize positions of a partial Fisher-Yates shuffle, sorted to read the check-in matrix in order
+		int[] positions = new int[nnz];
+		for (int p = 0; p < nnz; p++)
+			positions[p] = p;
+		Random rand = new Random(seed);
+		for (int i = 0; i < sampleSize; i++) {
+			int j = i + rand.nextInt(nnz - i);
+			int t = positions[i];
+			positions[i] = positions[j];
+			positions[j] = t;
 		}
+		int[] sample = Arrays.copyOf(positions, sampleSize);
+		Arrays.sort(sample);
 		
-		result += params.getLambda_1() * vReg + params.getLambda_3() * eVReg + params.getLambda_2() * rB_j;
-		
-		if (isFriend) {
-			HashSet<String> processedUsers = new HashSet<>();
+		int[] sampleUsers = new int[sampleSize];
+		int u = 0;
+		for (int i = 0; i < sampleSize; i++) {
+			while (cks.rowEnd(u) <= sample[i])
+				u++;
+			sampleUsers[i] = u;
+		}
+		lossSampleUsers = sampleUsers;
+		lossSample = sample;
+	}
+	
+	double objectiveFunc() { // we dont multiply to 1/2 because it is not necessary
+		return objectiveFunc(calculateRMSE());
+	}
+	
+	/**
+	 * 
+	 * @param sqrError	sum of square of errors of all observed check-ins (see calculateRMSE)
+	 * @return			objective function
+	 */
+	public double objectiveFunc(double sqrError) {
+		CompensatedSum result = new CompensatedSum();
+		result.add(sqrError);
+		result.add(CompensatedSum.sum(users.length, this::userRegularization));
+		result.add(CompensatedSum.sum(venues.length, this::venueRegularization));
+		return result.value();
+	}
+	
+	/**
+	 * 
+	 * @param u	user index
+	 * @return	regularization of the bias and the vector of user u in the objective function, with its share of the friend regularization
+	 */
+	public double userRegularization(int u) {
+		double result = params.getLambda_1() * userFactors.sqrNorm(u) + params.getLambda_2() * userBias.sqrNorm(u);
+		if (countedFriends != null) {
 			double fReg = 0.0;
-			for (UserObject u : allUsers) {
-				ArrayList<String> friends = u.getListOfFriends();
-				if (friends == null)
-					continue;
-				double[] uF = u.getFactors();
-				for (String fId : friends) {
-					if (processedUsers.contains(fId)) // the pair (u.getId(), fId) has been processed before
-						continue;
-					processedUsers.add(fId); // we dont want to process this pair latter
-					UserObject friend = userMap.get(fId);
-					if (friend == null) // for the case of that user does not exist (for ex: users not in training set)
-						continue;
-					double[] diff = Function.minus(uF, friend.getFactors());
-					fReg += Function.innerProduct(diff, diff);
-				}
-			}
-			
+			for (int fId : countedFriends[u])
+				fReg += userFactors.sqrDistance(u, userFactors, fId);
 			result += params.getLambda_f() * fReg;
 		}
-		
 		return result;
 	}
 	
+	/**
+	 * 
+	 * @param v	venue index
+	 * @return	regularization of the bias and the vectors of venue v in the objective function
+	 */
+	public double venueRegularization(int v) {
+		return params.getLambda_1() * venueIFactors.sqrNorm(v) + params.getLambda_3() * venueEFactors.sqrNorm(v)
+				+ params.getLambda_2() * venueBias.sqrNorm(v);
+	}
+	
 	/**
 	 * given user and venue id. Predict the number of check-ins between them using our model
 	 * @param uId	user id
@@ -315,112 +534,547 @@ public class Model {
 	 * @return		predicted number of check-ins between them
 	 */
 	public double calculatePredictedCks(String uId, String vId) {
-		VenueObject v = venueMap.get(vId);
-		UserObject u = userMap.get(uId);
+		return calculatePredictedCks(userDict.indexOf(uId), venueDict.indexOf(vId));
+	}
+	
+	/**
+	 * given user and venue index. Predict the number of check-ins between them using our model
+	 * @param uIdx	user index
+	 * @param vIdx	venue index
+	 * @return		predicted number of check-ins between them
+	 */
+	public double calculatePredictedCks(int uIdx, int vIdx) {
+		double innerProdOfUV = venueIFactors.dot(vIdx, userFactors, uIdx);
+		double result = mu + venueBias.getFlat(vIdx) + userBias.getFlat(uIdx) + innerProdOfUV;
 		
-		double innerProdOfUV = Function.innerProduct(v.getIFactors(), u.getFactors());
-		double result = mu + v.getBias() + u.getBias() + innerProdOfUV;
+		int[] neighbors = venues[vIdx].getNeighbors();
+		if (neighbors.length == 0) // no competition nor support, e.g. the venue has no location
+			return result;
 		
 		double s = 0.0;
-		ArrayList<String> neighbors = v.getNeighbors();
-		for (String nId : neighbors) {
-			VenueObject neighbor = venueMap.get(nId);
-			double similarity = 0.0; double competition = 0.0;
-			double innerProdOfU_eV = Function.innerProduct(u.getFactors(), v.getEFactors());
-			double innerProdOfUN = Function.innerProduct(u.getFactors(), neighbor.getEFactors());
+		double innerProdOfU_eV = userFactors.dot(uIdx, venueEFactors, vIdx);
+		double[] dots = neighborDots.get(neighbors.length);
+		userFactors.multiDot(uIdx, venueEFactors, neighbors, dots);
+		double[] weights = getSimilarityWeights()[vIdx];
+		for (int j = 0; j < neighbors.length; j++) {
+			double innerProdOfUN = dots[j];
+			s += neighborWeight(vIdx, neighbors[j], weights[j], innerProdOfU_eV - innerProdOfUN) * innerProdOfUN;
+		}
+		
+		double numberOfNeighbors = (double) neighbors.length;
+		return result + (beta / numberOfNeighbors) * s;
+	}
+	
+	/**
+	 * predict the number of check-ins of one user at every venue, with the same values as calculatePredictedCks(uIdx, v).
+	 * Inner products of the user vector with the intrinsic and extrinsic vectors of all venues are computed once
+	 * and shared by each venue and all venues which have it as a neighbor, so it costs O(V * k + V * N) instead of O(V * N * k)
+	 * @param uIdx	user index
+	 * @param out	out[v] receives the predicted number of check-ins of the user at venue v
+	 */
+	public void calculatePredictedCks(int uIdx, double[] out) {
+		calculatePredictedCks(uIdx, predictionWeights(), out);
+	}
+	
+	/**
+	 * same as calculatePredictedCks(uIdx, out) with the similarities of predictionWeights, 
+	 * which can be computed once for all users as long as the parameters do not change
+	 * @param uIdx			user index
+	 * @param allWeights	result of predictionWeights
+	 * @param out			out[v] receives the predicted number of check-ins of the user at venue v
+	 */
+	public void calculatePredictedCks(int uIdx, double[][] allWeights, double[] out) {
+		int numVenues = venues.length;
+		double[] dots = venueDots.get(numVenues);
+		userFactors.dotAll(uIdx, venueIFactors, out); // out holds the inner products of intrinsic vectors until it is overwritten
+		userFactors.dotAll(uIdx, venueEFactors, dots);
+		double uBias = userBias.getFlat(uIdx);
+		
+		for (int vIdx = 0; vIdx < numVenues; vIdx++) {
+			double result = mu + venueBias.getFlat(vIdx) + uBias + out[vIdx];
+			
+			int[] neighbors = venues[vIdx].getNeighbors();
+			if (neighbors.length == 0) { // no competition nor support
+				out[vIdx] = result;
+				continue;
+			}
 			
-			if (isSigmoid) // competition 
-				competition = Function.sigmoidFunction(innerProdOfU_eV - innerProdOfUN);
-			else
-				competition = Function.cdf(innerProdOfU_eV - innerProdOfUN);
+			double s = 0.0;
+			double innerProdOfU_eV = dots[vIdx];
+			double[] weights = allWeights[vIdx];
+			for (int j = 0; j < neighbors.length; j++) {
+				double innerProdOfUN = dots[neighbors[j]];
+				s += neighborWeight(weights[j], innerProdOfU_eV - innerProdOfUN) * innerProdOfUN;
+			}
 			
-			if (modeSim == ModeSimilarity.COSIN) // similarity (spatial homophily)  
-				similarity = Similarity.cosinVector(v.getEFactors(), neighbor.getEFactors());
-			else if (modeSim == ModeSimilarity.COSIN_CKS_SIM)
-				similarity = Similarity.cosinCheckinScore(vId, nId, this);
-			else if (modeSim == ModeSimilarity.COSIN_DIST_SIM)
-				similarity = Similarity.cosinDistanceScore(vId, nId, this);
-			else //if (modeSim == ModeSimilarity.CONSTANT)
-				similarity = 1.0;
-						
-			s += (alpha * competition + (1 - alpha) * similarity) * innerProdOfUN;
+			double numberOfNeighbors = (double) neighbors.length;
+			out[vIdx] = result + (beta / numberOfNeighbors) * s;
 		}
+	}
+	
+	/**
+	 * 
+	 * @param vIdx		venue index
+	 * @param n			index of a neighbor of the venue
+	 * @param weight	precomputed similarity of both venues (see getSimilarityWeights)
+	 * @param x			inner product of the user vector with the extrinsic vector of the venue minus the one of the neighbor
+	 * @return			weight of the neighbor in the prediction: mix of competition and similarity (spatial homophily)
+	 */
+	private double neighborWeight(int vIdx, int n, double weight, double x) {
+		double similarity;
+		if (modeSim == ModeSimilarity.COSIN) // similarity (spatial homophily)  
+			similarity = Similarity.cosinVector(venueEFactors, vIdx, n);
+		else // precomputed for the other modes
+			similarity = weight;
 		
-		double numberOfNeighbors = (double) neighbors.size();
-		return result + (beta / numberOfNeighbors) * s;
+		return neighborWeight(similarity, x);
 	}
 	
 	/**
 	 * 
-	 * @param uId
-	 * @return
+	 * @param similarity	similarity of the venue and its neighbor (spatial homophily)
+	 * @param x				inner product of the user vector with the extrinsic vector of the venue minus the one of the neighbor
+	 * @return				weight of the neighbor in the prediction
+	 */
+	private double neighborWeight(double similarity, double x) {
+		double competition;
+		if (isSigmoid) // competition 
+			competition = Function.sigmoidFunction(x, isFastMath);
+		else
+			competition = Function.cdf(x, isFastMath);
+		
+		return alpha * competition + (1 - alpha) * similarity;
+	}
+	
+	/**
+	 * similarity of every venue with each of its neighbors in predictions. It is getSimilarityWeights, except for ModeSimilarity.COSIN 
+	 * whose similarity is the cosine of the current extrinsic vectors: it is computed here once for all edges, instead of once per user
+	 * @return	result[v][j] is the similarity of venue v and its j-th neighbor in predictions
+	 */
+	public double[][] predictionWeights() {
+		if (modeSim != ModeSimilarity.COSIN)
+			return getSimilarityWeights();
+		double[][] result = new double[venues.length][];
+		for (int vIdx = 0; vIdx < venues.length; vIdx++) {
+			int[] neighbors = venues[vIdx].getNeighbors();
+			result[vIdx] = new double[neighbors.length];
+			for (int j = 0; j < neighbors.length; j++)
+				result[vIdx][j] = Similarity.cosinVector(venueEFactors, vIdx, neighbors[j]);
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 * @param uId	user id
+	 * @return		user object, null if user id is not in the model
 	 */
 	public UserObject getUserObj(String uId) {
-		return userMap.get(uId);
+		int idx = userDict.indexOf(uId);
+		if (idx < 0)
+			return null;
+		return users[idx];
 	}
 	
 	/**
 	 * 
-	 * @param vId
-	 * @return
+	 * @param vId	venue id
+	 * @return		venue object, null if venue id is not in the model
 	 */
 	public VenueObject getVenueObj(String vId){
-		return venueMap.get(vId);
+		int idx = venueDict.indexOf(vId);
+		if (idx < 0)
+			return null;
+		return venues[idx];
+	}
+	
+	/**
+	 * 
+	 * @param uIdx	user index
+	 * @return		user object
+	 */
+	public UserObject getUserObj(int uIdx) {
+		return users[uIdx];
+	}
+	
+	/**
+	 * 
+	 * @param vIdx	venue index
+	 * @return		venue object
+	 */
+	public VenueObject getVenueObj(int vIdx) {
+		return venues[vIdx];
+	}
+	
+	/**
+	 * 
+	 * @return	check-in matrix of training
+	 */
+	public CheckinMatrix getCheckins() {
+		return cks;
+	}
+	
+	/**
+	 * 
+	 * @return	bias of all users
+	 */
+	public FactorStore getUserBias() {
+		return userBias;
+	}
+	
+	/**
+	 * 
+	 * @return	latent factor vectors of all users
+	 */
+	public FactorStore getUserFactors() {
+		return userFactors;
+	}
+	
+	/**
+	 * 
+	 * @return	bias of all venues
+	 */
+	public FactorStore getVenueBias() {
+		return venueBias;
+	}
+	
+	/**
+	 * 
+	 * @return	intrinsic characteristic vectors of all venues
+	 */
+	public FactorStore getVenueIFactors() {
+		return venueIFactors;
+	}
+	
+	/**
+	 * 
+	 * @return	extrinsic characteristic vectors of all venues
+	 */
+	public FactorStore getVenueEFactors() {
+		return venueEFactors;
+	}
+	
+	/**
+	 * move all parameter blocks to other storage. Values are kept
+	 * @param storage	new storage
+	 */
+	public void setStorage(FactorStore.Storage storage) {
+		this.storage = storage;
+		setStores(userBias.copy(biasStorage()), userFactors.copy(storage), venueBias.copy(biasStorage()), 
+				venueIFactors.copy(storage), venueEFactors.copy(storage));
+	}
+	
+	/**
+	 * 
+	 * @return	where the bias blocks are stored. They are small so they are never stored in float
+	 */
+	private FactorStore.Storage biasStorage() {
+		return storage == FactorStore.Storage.FLOAT ? FactorStore.Storage.HEAP : storage;
+	}
+	
+	/**
+	 * replace all parameter blocks and make user and venue objects view them
+	 */
+	protected void setStores(FactorStore userBias, FactorStore userFactors, FactorStore venueBias, 
+			FactorStore venueIFactors, FactorStore venueEFactors) {
+		this.userBias = userBias;
+		this.userFactors = userFactors;
+		this.venueBias = venueBias;
+		this.venueIFactors = venueIFactors;
+		this.venueEFactors = venueEFactors;
+		for (UserObject u : users)
+			u.attach(userBias, userFactors);
+		for (VenueObject v : venues)
+			v.attach(venueBias, venueIFactors, venueEFactors);
+	}
+	
+	/**
+	 * set the number of threads used by optimization. Results do not depend on it
+	 * @param numThreads	number of threads
+	 */
+	public void setNumThreads(int numThreads) {
+		assert(numThreads > 0);
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * set the rule which turns gradients into updates in optimization. The default is gradient descent with learning rate 0.001
+	 * @param optimizer	optimizer, for example infer.Adam
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		this.optimizer = optimizer;
+	}
+	
+	/**
+	 * set the maximum number of iterations of optimization. The default is 20
+	 * @param maxIterations	maximum number of iterations
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+	
+	/**
+	 * 
+	 * @return	number of users in the model
+	 */
+	public int getNumUsers() {
+		return users.length;
+	}
+	
+	/**
+	 * 
+	 * @return	number of venues in the model
+	 */
+	public int getNumVenues() {
+		return venues.length;
+	}
+	
+	/**
+	 * 
+	 * @return	hash of the data which similarities depend on: ids, locations, check-ins and neighbors of venues.
+	 * 			Two models with the same data have the same fingerprint, whatever their hyperparameters are
+	 */
+	public long dataFingerprint() {
+		long result = userDict.fingerprint() * 0x100000001b3L + venueDict.fingerprint();
+		for (UserObject u : users)
+			result = mix(mix(result, u.getLocation()), u.getNumVenues());
+		for (VenueObject v : venues) {
+			result = mix(result, v.getLocation());
+			for (int n : v.getNeighbors())
+				result = result * 0x100000001b3L + n;
+			result = result * 0x100000001b3L + v.getNeighbors().length;
+		}
+		for (int p = 0; p < cks.nnz(); p++)
+			result = mix(result * 0x100000001b3L + cks.venueAt(p), cks.numCksAt(p));
+		return result;
+	}
+	
+	private static long mix(long h, double x) {
+		return h * 0x100000001b3L + Double.doubleToLongBits(x);
+	}
+	
+	private static long mix(long h, PointObject p) {
+		if (p == null)
+			return mix(h, Double.NaN);
+		return mix(mix(h, p.getLat()), p.getLng());
+	}
+	
+	/**
+	 * similarity of every venue with each of its neighbors for the mode of similarity of the model.
+	 * They are computed in parallel the first time, usually when the model is built, or loaded from a file of SimilarityCache
+	 * @return	result[v][j] is the similarity of venue v and its j-th neighbor (see Similarity.edgeWeights)
+	 */
+	public double[][] getSimilarityWeights() {
+		double[][] result = similarityWeights;
+		if (result == null || similarityWeightsMode != modeSim)
+			result = computeSimilarityWeights();
+		return result;
+	}
+	
+	private synchronized double[][] computeSimilarityWeights() {
+		if (similarityWeights == null || similarityWeightsMode != modeSim) {
+			similarityWeightsMode = modeSim;
+			similarityWeights = SimilarityCache.edgeWeights(this, modeSim);
+		}
+		return similarityWeights;
+	}
+	
+	/**
+	 * set the accuracy of ModeSimilarity.APPROX_CKS_SIM (see CheckinSketch). If it changes, the signatures 
+	 * and the similarity weights of this mode are computed again when they are needed
+	 * @param error				standard error of the estimated cosine
+	 * @param exactMaxUsers		venues with at most exactMaxUsers users are always computed exactly
+	 */
+	public synchronized void setSketchParameters(double error, int exactMaxUsers) {
+		synchronized (lazyLock) {
+			if (error == sketchError && exactMaxUsers == sketchExactMaxUsers)
+				return;
+			sketchError = error;
+			sketchExactMaxUsers = exactMaxUsers;
+			checkinSketch = null;
+		}
+		if (similarityWeightsMode == ModeSimilarity.APPROX_CKS_SIM)
+			similarityWeights = null;
+	}
+	
+	/**
+	 * 
+	 * @return	signatures of the check-ins of popular venues, built the first time
+	 */
+	public CheckinSketch getCheckinSketch() {
+		CheckinSketch result = checkinSketch;
+		if (result == null) {
+			synchronized (lazyLock) {
+				if (checkinSketch == null)
+					checkinSketch = new CheckinSketch(cks, sketchError, sketchExactMaxUsers);
+				result = checkinSketch;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * distances of check-ins, aligned with the check-in matrix. They are computed in parallel the first time by Distance.distance,
+	 * so each pair of user and venue is computed once however many pairs of venues it is in
+	 * @return	result[p] is the distance in meter between the user and the venue of position p of the check-in matrix
+	 */
+	public double[] getCheckinDistances() {
+		double[] result = checkinDistances;
+		if (result == null) {
+			synchronized (lazyLock) {
+				if (checkinDistances == null) {
+					double[] d = new double[cks.nnz()];
+					IntStream.range(0, users.length).parallel().forEach(u -> {
+						PointObject loc = users[u].getLocation();
+						for (int p = cks.rowStart(u); p < cks.rowEnd(u); p++)
+							d[p] = Distance.distance(loc, venues[cks.venueAt(p)].getLocation());
+					});
+					checkinDistances = d;
+				}
+				result = checkinDistances;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * lists of neighbors can be one-way (e.g. nearest venues), so the venues whose predictions use the extrinsic vector of v
+	 * are not always the neighbors of v
+	 * @return	result[v] lists the venues w which have v as a neighbor, in increasing order
+	 */
+	public int[][] getReverseNeighbors() {
+		int[][] result = reverseNeighbors;
+		if (result == null) {
+			synchronized (lazyLock) {
+				if (reverseNeighbors == null) {
+					int[] count = new int[venues.length];
+					for (VenueObject w : venues) {
+						for (int n : w.getNeighbors())
+							count[n]++;
+					}
+					int[][] rev = new int[venues.length][];
+					int[][] pos = new int[venues.length][];
+					for (int v = 0; v < venues.length; v++) {
+						rev[v] = new int[count[v]];
+						pos[v] = new int[count[v]];
+						count[v] = 0;
+					}
+					for (int w = 0; w < venues.length; w++) {
+						int[] neighbors = venues[w].getNeighbors();
+						for (int j = 0; j < neighbors.length; j++) {
+							int n = neighbors[j];
+							rev[n][count[n]] = w;
+							pos[n][count[n]++] = j;
+						}
+					}
+					reverseNeighborPositions = pos;
+					reverseNeighbors = rev;
+				}
+				result = reverseNeighbors;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 * @return	result[v][i] is the position of v in the list of neighbors of venue getReverseNeighbors()[v][i],
+	 * 			e.g. to read their similarity in getSimilarityWeights
+	 */
+	public int[][] getReverseNeighborPositions() {
+		getReverseNeighbors();
+		return reverseNeighborPositions;
 	}
 	
 	public void optimization() {
 		double prevObjFunc = 0.0;
 		boolean isConv = false;
 
-		GradientCalculator gc = new GradientCalculator(this, params);
-		double learningRate = 0.001;
+		TrainingScheduler scheduler = new TrainingScheduler(this, params, numThreads, optimizer);
 		
 		int numIter = 0;
-		while(!isConv) {
-			
-			// update user
-			for (String userId : userMap.keySet()) {
-				UserObject uo = getUserObj(userId);
-				
-				// update bias
-				double bias = uo.getBias();
-				double grad = gc.userBias(userId);
-				uo.setBias(bias - learningRate * grad);
-				
-				// update user vector
-				double[] vector = uo.getFactors();
-				double[] vgrad = gc.userGrad(userId);
-				uo.setFactors(Function.minus(vector, Function.multiply(learningRate, vgrad)));
+		try {
+			while(!isConv) {
+				scheduler.sweep();
 				
+				// check convergence
+				double curObjFunc = scheduler.objective();
+				System.out.println("Objective function: " + curObjFunc);
+				if ((Math.abs(curObjFunc - prevObjFunc) <  0.001 * prevObjFunc) || numIter == maxIterations)
+					isConv = true;
+				prevObjFunc = curObjFunc;
+				numIter++;
 			}
-			
-			// update venue
-			for (String venueId : venueMap.keySet()) {
-				VenueObject vo = getVenueObj(venueId);
-				
-				// update bias
-				double bias = vo.getBias();
-				double grad = gc.venueBias(venueId);
-				vo.setBias(bias - learningRate * grad);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+	
+	/**
+	 * full-batch L-BFGS over all biases and factors seen as one vector (see infer.FlatObjective).
+	 * It is an alternative to optimization which needs much fewer passes over the data.
+	 * At most maxIterations iterations are run
+	 */
+	public void optimizationLBFGS() {
+		FlatObjective f = new FlatObjective(this, params, numThreads);
+		try {
+			double[] x = new double[f.dimension()];
+			f.get(x);
+			new LBFGS(10, 1e-5).minimize(f, x, maxIterations);
+			System.out.println("Number of passes over the data: " + f.getNumEvaluations());
+		} finally {
+			f.shutdown();
+		}
+	}
+	
+	/**
+	 * mini-batch gradient descent over shuffled check-ins (see infer.MiniBatchTrainer).
+	 * The gradient of a batch is the sum of the gradients of its check-ins
+	 * @param batchSize		number of check-ins in a batch
+	 * @param maxEpochs		maximum number of passes over all check-ins
+	 * @param optimizer		rule which turns the gradient of a batch into updates, for example new infer.GradientDescent(0.01)
+	 */
+	public void optimizationMiniBatch(int batchSize, int maxEpochs, Optimizer optimizer) {
+		double prevObjFunc = 0.0;
+		MiniBatchTrainer trainer = new MiniBatchTrainer(this, params, batchSize, optimizer, numThreads, 0);
+		try {
+			for (int epoch = 0; epoch < maxEpochs; epoch++) {
+				trainer.epoch();
 				
-				// update intrinsic characters
-				double[] iVector = vo.getIFactors();
-				double[] iGrad = gc.iVenueGrad(venueId);
-				vo.setIFactors(Function.minus(iVector, Function.multiply(learningRate, iGrad)));
+				// check convergence
+				double curObjFunc = objectiveFunc();
+				System.out.println("Objective function: " + curObjFunc);
+				if (Math.abs(curObjFunc - prevObjFunc) <  0.001 * prevObjFunc)
+					break;
+				prevObjFunc = curObjFunc;
+			}
+		} finally {
+			trainer.shutdown();
+		}
+	}
+	
+	/**
+	 * lock-free stochastic gradient descent over shuffled check-ins (see infer.HogwildTrainer). 
+	 * It is an alternative to optimization which usually needs fewer passes over the data
+	 * @param maxEpochs		maximum number of passes over all check-ins
+	 * @param learningRate	learning rate of each step
+	 */
+	public void optimizationSGD(int maxEpochs, double learningRate) {
+		double prevObjFunc = 0.0;
+		HogwildTrainer trainer = new HogwildTrainer(this, params, numThreads, 0);
+		try {
+			for (int epoch = 0; epoch < maxEpochs; epoch++) {
+				trainer.epoch(learningRate);
 				
-				// update extrinsic characters
-				double[] eVector = vo.getEFactors();
-				double[] eGrad = gc.eVenueGrad(venueId);
-				vo.setEFactors(Function.minus(eVector, Function.multiply(learningRate, eGrad)));
+				// check convergence
+				double curObjFunc = objectiveFunc();
+				System.out.println("Objective function: " + curObjFunc);
+				if (Math.abs(curObjFunc - prevObjFunc) <  0.001 * prevObjFunc)
+					break;
+				prevObjFunc = curObjFunc;
 			}
-			
-			// check convergence
-			double curObjFunc = objectiveFunc();
-			System.out.println("Objective function: " + curObjFunc);
-			if ((Math.abs(curObjFunc - prevObjFunc) <  0.001 * prevObjFunc) || numIter == 20)
-				isConv = true;
-			prevObjFunc = curObjFunc;
-			numIter++;
+		} finally {
+			trainer.shutdown();
 		}
 	}
 	
@@ -442,20 +1096,18 @@ public class Model {
 
 		// user
 		result.add("users:");
-		for (String uId : userMap.keySet()) {
+		for (UserObject uo : users) {
 			StringBuffer sb = new StringBuffer();
-			sb.append(uId + " ");
-			UserObject uo = getUserObj(uId);
+			sb.append(uo.getId() + " ");
 			sb.append(uo.getBias() + "," + Arrays.toString(uo.getFactors()));
 			result.add(sb.toString());
 		}
 		
 		// venue
 		result.add("venues:");
-		for (String vId : venueMap.keySet()) {
+		for (VenueObject vo : venues) {
 			StringBuffer sb = new StringBuffer();
-			sb.append(vId + " ");
-			VenueObject vo = getVenueObj(vId);
+			sb.append(vo.getId() + " ");
 			sb.append(vo.getBias() + "," + Arrays.toString(vo.getEFactors()) + "," + Arrays.toString(vo.getIFactors()));
 			result.add(sb.toString());
 		}
@@ -464,12 +1116,22 @@ public class Model {
 		Utils.writeFile(result, fname);
 	}
 
+	/**
+	 * save all parameters to a binary checkpoint in a background thread (see Checkpoint). 
+	 * It is much faster to write and to load than savePrediction
+	 * @param fname	name of output file
+	 * @return		future which completes when the file is written
+	 */
+	public CompletableFuture<Void> saveCheckpoint(String fname) {
+		return Checkpoint.writeAsync(this, fname);
+	}
+
 	public void test() {
 		GradientCalculator g = new GradientCalculator(this, params);
 
 		VenueObject v = this.getVenueObj("1");
 		v.setEFactors(new double[]{1.0, 2.0, 3.0, 4.0, 5.0});
-		double[] gg = g.eVenueGrad("1");
+		double[] gg = g.eVenueGrad(v.getIndex());
 
 		System.out.println("--------------");
 		
@@ -488,8 +1150,6 @@ public class Model {
 
 
 	public static void main(String[] args) throws UnsupportedEncodingException, FileNotFoundException, IOException {
-		System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "13");
-
 		// test gradient
 //		String uFile = "UDI_full_Jakarta/full_user_profiles";
 //		String vFile = "UDI_full_Jakarta/full_venue_profiles";
@@ -520,9 +1180,11 @@ public class Model {
 //		Parameters params = new Parameters(0.0, 0.0, 0.0, 0.0);
 		Model m = new Model(uFile, vFile, nFile, fFile, cksFile, isSigmoid, modeSim, k, 
 						alpha, beta, isFriend, params);
+		m.setNumThreads(13);
 		m.test();
 //		m.optimization();
 //		m.savePrediction("test_data/result.txt");
+//		m.saveCheckpoint("test_data/result.bin").join();
 //		double[] x = new double[]{1, 2, 3};
 //		System.out.println(Arrays.toString(x));
 	}
@@ -0,0 +1,81 @@
+package main;
+
+import java.io.IOException;
+
+import object.FactorStore;
+
+/**
+ * train the same model from the same starting point with factors stored in double and in float,
+ * then compare RMSE and objective value of both
+ * @author tndoan
+ *
+ */
+public class PrecisionComparison {
+
+	/**
+	 * 
+	 * @param m	model
+	 * @return	RMSE of model on its training check-ins
+	 */
+	private static double rmse(Model m) {
+		return Math.sqrt(m.calculateRMSE() / m.getCheckins().nnz());
+	}
+
+	private static void report(String name, Model m) {
+		System.out.println(name + ": RMSE = " + rmse(m) + ", objective function = " + m.objectiveFunc());
+	}
+
+	/**
+	 * 
+	 * @param args	snapshot file (see utils.DatasetSnapshot). If it is not given, the files in test_data are used
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean isSigmoid = false;
+		int modeSim = ModeSimilarity.COSIN_DIST_SIM;
+		int k = 5;
+		double alpha = 0.5;
+		double beta = 0.5;
+		boolean isFriend = false;
+		Parameters params = new Parameters(0.01, 0.01, 0.01, 0.01);
+
+		Model d, f;
+		if (args.length > 0) {
+			d = new Model(args[0], isSigmoid, modeSim, k, alpha, beta, isFriend, params);
+			f = new Model(args[0], isSigmoid, modeSim, k, alpha, beta, isFriend, params);
+		} else {
+			String uFile = "test_data/u.txt";
+			String vFile = "test_data/v.txt";
+			String nFile = "test_data/neighbor";
+			String cksFile = "test_data/cks.txt";
+			d = new Model(uFile, vFile, nFile, null, cksFile, isSigmoid, modeSim, k, alpha, beta, isFriend, params);
+			f = new Model(uFile, vFile, nFile, null, cksFile, isSigmoid, modeSim, k, alpha, beta, isFriend, params);
+		}
+
+		// same starting point: the float model starts from the initial values of the double model
+		FactorStore.Storage heap = FactorStore.Storage.HEAP;
+		f.setStores(d.getUserBias().copy(heap), d.getUserFactors().copy(heap), d.getVenueBias().copy(heap), 
+				d.getVenueIFactors().copy(heap), d.getVenueEFactors().copy(heap));
+		f.setStorage(FactorStore.Storage.FLOAT);
+
+		report("double (initial)", d);
+		report("float  (initial)", f);
+
+		long start = System.currentTimeMillis();
+		d.optimization();
+		long dTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		f.optimization();
+		long fTime = System.currentTimeMillis() - start;
+
+		report("double", d);
+		report("float ", f);
+		System.out.println("time (ms): double = " + dTime + ", float = " + fTime);
+
+		double dRmse = rmse(d), fRmse = rmse(f);
+		System.out.println("relative difference of RMSE: " + Math.abs(dRmse - fRmse) / dRmse);
+		double dObj = d.objectiveFunc(), fObj = f.objectiveFunc();
+		System.out.println("relative difference of objective function: " + Math.abs(dObj - fObj) / dObj);
+	}
+}
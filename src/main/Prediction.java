@@ -13,81 +13,107 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import object.PointObject;
 import object.UserObject;
 import object.VenueObject;
-import utils.ReadFile;
-import utils.Similarity;
+import utils.DatasetSnapshot;
 import utils.Utils;
 
 public class Prediction extends Model{
 
 	private HashMap<String, HashMap<String, Double>> gt;
 	
+	/**
+	 * load a trained model and the data it was trained on
+	 * @param outputFName		file name of the trained model. It is a binary checkpoint (see Checkpoint) or the text output of savePrediction
+	 * @param uFile				file name of location of users
+	 * @param vFile				file name of location of venues
+	 * @param nFile				file name of neighbors of each venue
+	 * @param fFile				file name of friendship
+	 * @param cksFile			file name of check-ins information
+	 * @param groundTruthFName	file name of ground truth
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
 	public Prediction(String outputFName, String uFile, String vFile, String nFile, String fFile, String cksFile, String groundTruthFName) 
 			throws FileNotFoundException, IOException{
 		
-		// initialize
-		venueMap = new HashMap<>();
-		userMap = new HashMap<>();
-		cksMap = ReadFile.readNumCksFile(cksFile);
-		HashMap<String, ArrayList<String>> friendInfo = new HashMap<>();
+		if (Checkpoint.isCheckpoint(outputFName)) {
+			Checkpoint c = Checkpoint.read(outputFName);
+			c.applyHeader(this);
+			loadData(uFile, vFile, nFile, fFile, cksFile);
+			c.applyParameters(this);
+		} else {
+			try(BufferedReader br = new BufferedReader(new FileReader(outputFName))) {
+			    String line = br.readLine(); // meta info of model
+			    parseFirstLine(line);
+			    
+			    // read data from files. Factors are overwritten by the values in the model file
+			    loadData(uFile, vFile, nFile, fFile, cksFile);
 
-		// read data from files
-		HashMap<String, String> vInfo = ReadFile.readLocation(vFile);
-		HashMap<String, String> uInfo = new HashMap<>();
-		if (uFile != null)
-			uInfo = ReadFile.readLocation(uFile);
-		HashMap<String, ArrayList<String>> neighborsInfo = ReadFile.readNeighbors(nFile);
-		HashMap<String, ArrayList<String>> userOfVenueMap = Utils.collectUsers(cksMap);
+			    parseFactors(br);
+			}
+		}
 		
-		try(BufferedReader br = new BufferedReader(new FileReader(outputFName))) {
-		    String line = br.readLine(); // meta info of model
-		    parseFirstLine(line);
-		    
-		    if (isFriend)
-		    	friendInfo = ReadFile.readFriendship(fFile);
-
-		    line = br.readLine(); // "users:"
-		    line = br.readLine();
-		    while (!line.equals("venues:")) {
-		        String[] comp = line.split(" ");
-		        String userId = comp[0];
-		        UserObject u = null;
-		        
-		        PointObject p = null;
-		        if (uFile != null)
-		        	p = new PointObject(uInfo.get(userId));
-		        
-		        if (isFriend)
-		        	u = parseUser(userId, line.substring(userId.length() + 1), p, friendInfo.get(userId));
-		        else 
-		        	u = parseUser(userId, line.substring(userId.length() + 1), p, null);
-		        
-		        userMap.put(userId, u);
-		        line = br.readLine();
-		    }
-		    
-//		    System.out.println("# users:" + userMap.keySet().size());
-		    
-		    line = br.readLine();
-		    while (line != null){
-		    	String[] comp = line.split(" ");
-		    	String venueId = comp[0];
-		    	VenueObject v = parseVenue(venueId, line.substring(venueId.length() + 1), 
-		    			new PointObject(vInfo.get(venueId)), neighborsInfo.get(venueId),
-		    			userOfVenueMap.get(venueId));
-		    	venueMap.put(venueId, v);
-		    	line = br.readLine();
-		    }
-//		    System.out.println("# venues:" + venueMap.keySet().size());
+		gt = readGroundTruth(groundTruthFName);
+	}
+	
+	/**
+	 * same as the other constructor but the data is loaded from a dataset snapshot (see utils.DatasetSnapshot)
+	 * @param outputFName		file name of the trained model. It is a binary checkpoint (see Checkpoint) or the text output of savePrediction
+	 * @param snapshotFile		file name of dataset snapshot
+	 * @param groundTruthFName	file name of ground truth
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public Prediction(String outputFName, String snapshotFile, String groundTruthFName) throws FileNotFoundException, IOException {
+		if (Checkpoint.isCheckpoint(outputFName)) {
+			Checkpoint c = Checkpoint.read(outputFName);
+			c.applyHeader(this);
+			loadData(DatasetSnapshot.load(snapshotFile));
+			c.applyParameters(this);
+		} else {
+			try(BufferedReader br = new BufferedReader(new FileReader(outputFName))) {
+			    parseFirstLine(br.readLine()); // meta info of model
+			    loadData(DatasetSnapshot.load(snapshotFile));
+			    parseFactors(br);
+			}
 		}
 		
 		gt = readGroundTruth(groundTruthFName);
-		Similarity.initialize();
 	}
 	
-	private VenueObject parseVenue(String venueId, String info, PointObject location, ArrayList<String> neighbor, ArrayList<String> users) {
+	/**
+	 * read all user and venue lines of the model file
+	 * @param br	reader of the model file whose first line has been read
+	 * @throws IOException
+	 */
+	private void parseFactors(BufferedReader br) throws IOException {
+	    String line = br.readLine(); // "users:"
+	    line = br.readLine();
+	    while (!line.equals("venues:")) {
+	        String[] comp = line.split(" ");
+	        String userId = comp[0];
+	        UserObject u = getUserObj(userId);
+	        if (u != null)
+	        	parseUser(u, line.substring(userId.length() + 1));
+	        line = br.readLine();
+	    }
+	    
+//	    System.out.println("# users:" + users.length);
+	    
+	    line = br.readLine();
+	    while (line != null){
+	    	String[] comp = line.split(" ");
+	    	String venueId = comp[0];
+	    	VenueObject v = getVenueObj(venueId);
+	    	if (v != null)
+	    		parseVenue(v, line.substring(venueId.length() + 1));
+	    	line = br.readLine();
+	    }
+//	    System.out.println("# venues:" + venues.length);
+	}
+	
+	private void parseVenue(VenueObject v, String info) {
 		String[] comp = info.split(",\\[");
 		double bias = Double.parseDouble(comp[0]);
 		double[] efactors = Utils.fromString("[" + comp[1]);
@@ -95,27 +121,19 @@ public class Prediction extends Model{
 		assert(efactors.length == k);
 		assert(ifactors.length == k);
 		
-		int totalCks = 0;
-		for (String u : users)
-			totalCks += (int) userMap.get(u).retrieveNumCks(venueId);
-		
-		VenueObject v = new VenueObject(venueId, totalCks, location, neighbor, users, k);
 		v.setBias(bias);
 		v.setEFactors(efactors);
 		v.setIFactors(ifactors);
-		return v;
 	}
 	
-	private UserObject parseUser(String userId, String info, PointObject location, ArrayList<String> friends) {
+	private void parseUser(UserObject u, String info) {
 		String[] comp = info.split(",\\[");
 		double bias = Double.parseDouble(comp[0]);
 		double[] factors = Utils.fromString("[" + comp[1]);
 		assert(factors.length == k); // ensure the length of factor vector is equal to k 
 		
-		UserObject u =  new UserObject(userId, location, cksMap.get(userId), k, friends);
 		u.setBias(bias);
 		u.setFactors(factors);
-		return u;
 	}
 	
 	private HashMap<String, HashMap<String, Double>> readGroundTruth(String fname) throws IOException {
@@ -190,11 +208,11 @@ public class Prediction extends Model{
 		for (String userId : gt.keySet()) {
 			HashMap<String, Double> g = gt.get(userId);
 			for (String venueId : g.keySet()) {
-				UserObject u = userMap.get(userId);
-				VenueObject v = venueMap.get(venueId);
+				UserObject u = getUserObj(userId);
+				VenueObject v = getVenueObj(venueId);
 				if (u == null || v == null)
 					continue;
-				double pred = calculatePredictedCks(userId, venueId);
+				double pred = calculatePredictedCks(u.getIndex(), v.getIndex());
 				double actual = g.get(venueId);
 				count += 1.0;
 				
@@ -215,8 +233,8 @@ public class Prediction extends Model{
 		for (String userId : gt.keySet()) {
 			HashMap<String, Double> g = gt.get(userId);
 			for (String venueId : g.keySet()) {
-				UserObject u = userMap.get(userId);
-				VenueObject v = venueMap.get(venueId);
+				UserObject u = getUserObj(userId);
+				VenueObject v = getVenueObj(venueId);
 				if (u == null || v == null)
 					continue;
 				double actual = g.get(venueId);
@@ -237,16 +255,18 @@ public class Prediction extends Model{
 		double count = 0.0;
 		
 		double[] result = new double[topk.length];
+		double[] scores = new double[venues.length];
+		double[][] weights = predictionWeights(); // parameters do not change, so they are shared by all users
 		
-		for (String userId : userMap.keySet()) {
-			// prediction
+		for (UserObject u : users) {
+			// prediction of all venues at once
+			calculatePredictedCks(u.getIndex(), weights, scores);
 			ArrayList<PairObject> list = new ArrayList<>();
 			
-			for (String venueId : venueMap.keySet()) {
-				double pred = calculatePredictedCks(userId, venueId);
-				list.add(new PairObject(venueId, pred));
+			for (VenueObject v : venues) {
+				list.add(new PairObject(v.getId(), scores[v.getIndex()]));
 			}
-			Set<String> groundTruth = gt.get(userId).keySet();
+			Set<String> groundTruth = gt.get(u.getId()).keySet();
 			ArrayList<String> topkList = topKVenues(list, maxTopk);
 			
 			// compare to groundtruth
@@ -274,15 +294,14 @@ public class Prediction extends Model{
 	public void uiMean() {
 		HashMap<String, Double> uMean = new HashMap<>();
 		
-		for (String uId : cksMap.keySet()) {
-			HashMap<String, Double> vM = cksMap.get(uId);
+		for (UserObject u : users) {
 			double count = 0.0;
 			double total = 0.0;
-			for (String vId : vM.keySet()) {
-				total += vM.get(vId);
+			for (int p = cks.rowStart(u.getIndex()); p < cks.rowEnd(u.getIndex()); p++) {
+				total += cks.numCksAt(p);
 				count += 1.0;
 			}
-			uMean.put(uId, total / count);
+			uMean.put(u.getId(), total / count);
 		}
 		
 		double mae = 0.0;
@@ -294,8 +313,8 @@ public class Prediction extends Model{
 			Double pred = uMean.get(userId);
 			if (pred == null) continue;
 			for (String venueId : g.keySet()) {
-				UserObject u = userMap.get(userId);
-				VenueObject v = venueMap.get(venueId);
+				UserObject u = getUserObj(userId);
+				VenueObject v = getVenueObj(venueId);
 				if (u == null || v == null)
 					continue;
 				double actual = g.get(venueId);
@@ -315,11 +334,11 @@ public class Prediction extends Model{
 		for (String userId : gt.keySet()) {
 			HashMap<String, Double> g = gt.get(userId);
 			for (String venueId : g.keySet()) {
-				UserObject u = userMap.get(userId);
-				VenueObject v = venueMap.get(venueId);
+				UserObject u = getUserObj(userId);
+				VenueObject v = getVenueObj(venueId);
 				if (u == null || v == null)
 					continue;
-				double pred = (double)v.getTotalCks() / (double)v.getUserIds().size();
+				double pred = (double)v.getTotalCks() / (double)v.getNumUsers();
 				double actual = g.get(venueId);
 				count += 1.0;
 				
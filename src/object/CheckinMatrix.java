@@ -0,0 +1,346 @@
+package object;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import utils.BinaryReader;
+import utils.BinaryWriter;
+
+/**
+ * sparse matrix of number of check-ins between users and venues.
+ * It is stored in compressed sparse row format (user-major). A transposed view (venue-major)
+ * shares the same array of number of check-ins by keeping the position of each entry in the user-major arrays.
+ *
+ * Entries of user u are in positions rowStart(u) .. rowEnd(u) - 1, sorted by venue index.
+ * Entries of venue v are in positions colStart(v) .. colEnd(v) - 1 of the transposed view, sorted by user index.
+ * @author tndoan
+ *
+ */
+public class CheckinMatrix {
+
+	private int numUsers;
+
+	private int numVenues;
+
+	/**
+	 * entries of user u are in [rowPtr[u], rowPtr[u + 1])
+	 */
+	private int[] rowPtr;
+
+	/**
+	 * venue index of each entry
+	 */
+	private int[] venueIdx;
+
+	/**
+	 * number of check-ins of each entry
+	 */
+	private double[] numCks;
+
+	/**
+	 * entries of venue v in the transposed view are in [colPtr[v], colPtr[v + 1])
+	 */
+	private int[] colPtr;
+
+	/**
+	 * user index of each entry of the transposed view. Users of each venue are in increasing order
+	 */
+	private int[] userIdx;
+
+	/**
+	 * position in the user-major arrays of each entry of the transposed view
+	 */
+	private int[] rowPos;
+
+	/**
+	 * create the matrix from its user-major arrays. The transposed view is built from them
+	 * @param numUsers	number of users
+	 * @param numVenues	number of venues
+	 * @param rowPtr	entries of user u are in [rowPtr[u], rowPtr[u + 1]). Its size is numUsers + 1
+	 * @param venueIdx	venue index of each entry. It must be sorted in each row
+	 * @param numCks	number of check-ins of each entry
+	 */
+	public CheckinMatrix(int numUsers, int numVenues, int[] rowPtr, int[] venueIdx, double[] numCks) {
+		this.numUsers = numUsers;
+		this.numVenues = numVenues;
+		this.rowPtr = rowPtr;
+		this.venueIdx = venueIdx;
+		this.numCks = numCks;
+
+		int nnz = rowPtr[numUsers];
+		colPtr = new int[numVenues + 1];
+		for (int p = 0; p < nnz; p++)
+			colPtr[venueIdx[p] + 1]++;
+		for (int v = 0; v < numVenues; v++)
+			colPtr[v + 1] += colPtr[v];
+
+		userIdx = new int[nnz];
+		rowPos = new int[nnz];
+		int[] next = Arrays.copyOf(colPtr, numVenues);
+		for (int u = 0; u < numUsers; u++) { // users are visited in increasing order so each column is sorted
+			for (int p = rowPtr[u]; p < rowPtr[u + 1]; p++) {
+				int q = next[venueIdx[p]]++;
+				userIdx[q] = u;
+				rowPos[q] = p;
+			}
+		}
+	}
+
+	/**
+	 * create the matrix from all of its arrays
+	 */
+	private CheckinMatrix(int numUsers, int numVenues, int[] rowPtr, int[] venueIdx, double[] numCks, 
+			int[] colPtr, int[] userIdx, int[] rowPos) {
+		this.numUsers = numUsers;
+		this.numVenues = numVenues;
+		this.rowPtr = rowPtr;
+		this.venueIdx = venueIdx;
+		this.numCks = numCks;
+		this.colPtr = colPtr;
+		this.userIdx = userIdx;
+		this.rowPos = rowPos;
+	}
+
+	/**
+	 * build the matrix from list of (user, venue, number of check-ins) triplets.
+	 * If a pair (user, venue) appears more than once, the last one is kept
+	 * @param users		user index of each triplet
+	 * @param venues	venue index of each triplet
+	 * @param cks		number of check-ins of each triplet
+	 * @param size		number of triplets
+	 * @param numUsers	number of users
+	 * @param numVenues	number of venues
+	 * @return			check-in matrix
+	 */
+	public static CheckinMatrix fromTriplets(int[] users, int[] venues, double[] cks, int size, int numUsers, int numVenues) {
+		// counting sort by user while keeping the order of triplets in each row
+		int[] rowPtr = new int[numUsers + 1];
+		for (int i = 0; i < size; i++)
+			rowPtr[users[i] + 1]++;
+		for (int u = 0; u < numUsers; u++)
+			rowPtr[u + 1] += rowPtr[u];
+
+		int[] order = new int[size];
+		int[] next = Arrays.copyOf(rowPtr, numUsers);
+		for (int i = 0; i < size; i++)
+			order[next[users[i]]++] = i;
+
+		// sort each row by venue, remove duplicated venues and compact the rows
+		int[] venueIdx = new int[size];
+		double[] numCks = new double[size];
+		int nnz = 0;
+		long[] keys = new long[0];
+		for (int u = 0; u < numUsers; u++) {
+			int start = rowPtr[u], end = rowPtr[u + 1];
+			int len = end - start;
+			if (keys.length < len)
+				keys = new long[len];
+			for (int i = 0; i < len; i++) // venue in high bits, order of triplet in low bits
+				keys[i] = ((long) venues[order[start + i]] << 32) | (start + i);
+			Arrays.sort(keys, 0, len);
+
+			rowPtr[u] = nnz;
+			for (int i = 0; i < len; i++) {
+				int v = (int) (keys[i] >>> 32);
+				if (i + 1 < len && (int) (keys[i + 1] >>> 32) == v)
+					continue; // a later triplet of the same pair exists
+				venueIdx[nnz] = v;
+				numCks[nnz] = cks[order[(int) keys[i]]];
+				nnz++;
+			}
+		}
+		rowPtr[numUsers] = nnz;
+
+		return new CheckinMatrix(numUsers, numVenues, rowPtr, Arrays.copyOf(venueIdx, nnz), Arrays.copyOf(numCks, nnz));
+	}
+
+	/**
+	 *
+	 * @param u	user index
+	 * @param v	venue index
+	 * @return	number of check-ins of user u in venue v, 0 if there is no check-in
+	 */
+	public double getNumCks(int u, int v) {
+		int p = Arrays.binarySearch(venueIdx, rowPtr[u], rowPtr[u + 1], v);
+		if (p < 0)
+			return 0.0;
+		return numCks[p];
+	}
+
+	/**
+	 *
+	 * @param u	user index
+	 * @param v	venue index
+	 * @return	true if there is an entry of (u, v)
+	 */
+	public boolean contains(int u, int v) {
+		return Arrays.binarySearch(venueIdx, rowPtr[u], rowPtr[u + 1], v) >= 0;
+	}
+
+	/**
+	 *
+	 * @param u	user index
+	 * @return	first position of entries of user u
+	 */
+	public int rowStart(int u) {
+		return rowPtr[u];
+	}
+
+	/**
+	 *
+	 * @param u	user index
+	 * @return	position after the last entry of user u
+	 */
+	public int rowEnd(int u) {
+		return rowPtr[u + 1];
+	}
+
+	/**
+	 *
+	 * @param p	position in the user-major arrays
+	 * @return	venue index of entry p
+	 */
+	public int venueAt(int p) {
+		return venueIdx[p];
+	}
+
+	/**
+	 *
+	 * @param p	position in the user-major arrays
+	 * @return	number of check-ins of entry p
+	 */
+	public double numCksAt(int p) {
+		return numCks[p];
+	}
+
+	/**
+	 *
+	 * @param v	venue index
+	 * @return	first position of entries of venue v in the transposed view
+	 */
+	public int colStart(int v) {
+		return colPtr[v];
+	}
+
+	/**
+	 *
+	 * @param v	venue index
+	 * @return	position after the last entry of venue v in the transposed view
+	 */
+	public int colEnd(int v) {
+		return colPtr[v + 1];
+	}
+
+	/**
+	 *
+	 * @param q	position in the transposed view
+	 * @return	user index of entry q
+	 */
+	public int userAt(int q) {
+		return userIdx[q];
+	}
+
+	/**
+	 * find the first entry of a user in part of a column of the transposed view, by galloping then binary search.
+	 * It costs O(log d) where d is the distance to the result, so skipping many users of a popular venue is cheap
+	 * @param from	first position to look at
+	 * @param end	position after the last entry of the column
+	 * @param u		user index
+	 * @return		first position q in [from, end) with userAt(q) >= u, end if there is none
+	 */
+	public int seekUser(int from, int end, int u) {
+		if (from >= end || userIdx[from] >= u)
+			return from;
+		// userIdx[lo] < u, find hi with userIdx[hi] >= u or hi = end
+		int lo = from, step = 1;
+		int hi = from + 1;
+		while (hi < end && userIdx[hi] < u) {
+			lo = hi;
+			step <<= 1;
+			hi = lo + step;
+		}
+		hi = Math.min(hi, end);
+		while (hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			if (userIdx[mid] < u)
+				lo = mid;
+			else
+				hi = mid;
+		}
+		return hi;
+	}
+
+	/**
+	 *
+	 * @param q	position in the transposed view
+	 * @return	position of entry q in the user-major arrays. Use it with numCksAt
+	 */
+	public int rowPosAt(int q) {
+		return rowPos[q];
+	}
+
+	/**
+	 *
+	 * @return	number of non-zero entries
+	 */
+	public int nnz() {
+		return rowPtr[numUsers];
+	}
+
+	public int getNumUsers() {
+		return numUsers;
+	}
+
+	public int getNumVenues() {
+		return numVenues;
+	}
+
+	/**
+	 *
+	 * @return	sum of number of check-ins of all entries
+	 */
+	public double totalCks() {
+		double result = 0.0;
+		for (int p = 0; p < nnz(); p++)
+			result += numCks[p];
+		return result;
+	}
+
+	/**
+	 * write the matrix, including its transposed view, to a binary file
+	 * @param out	writer of the file
+	 * @throws IOException
+	 */
+	public void write(BinaryWriter out) throws IOException {
+		out.putInt(numUsers);
+		out.putInt(numVenues);
+		out.putInt(nnz());
+		out.putInts(rowPtr);
+		out.putInts(venueIdx);
+		out.putInts(colPtr);
+		out.putInts(userIdx);
+		out.putInts(rowPos);
+		out.align(8);
+		out.putDoubles(numCks);
+	}
+
+	/**
+	 * read the matrix written by write. The transposed view is not rebuilt
+	 * @param in	reader of the file
+	 * @return		check-in matrix
+	 * @throws IOException
+	 */
+	public static CheckinMatrix read(BinaryReader in) throws IOException {
+		int numUsers = in.getInt();
+		int numVenues = in.getInt();
+		int nnz = in.getInt();
+		int[] rowPtr = in.getInts(numUsers + 1);
+		int[] venueIdx = in.getInts(nnz);
+		int[] colPtr = in.getInts(numVenues + 1);
+		int[] userIdx = in.getInts(nnz);
+		int[] rowPos = in.getInts(nnz);
+		in.align(8);
+		double[] numCks = in.getDoubles(nnz);
+		return new CheckinMatrix(numUsers, numVenues, rowPtr, venueIdx, numCks, colPtr, userIdx, rowPos);
+	}
+}
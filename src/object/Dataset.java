@@ -0,0 +1,144 @@
+package object;
+
+import java.util.ArrayList;
+
+import utils.IdDictionary;
+import utils.NeighborGraph;
+import utils.ReadFile;
+
+/**
+ * all input data of a model: dictionaries of ids, locations, check-ins, neighbors of venues and friends of users.
+ * It is read from text files (fromText) or from a binary snapshot (see utils.DatasetSnapshot)
+ * @author tndoan
+ *
+ */
+public class Dataset {
+
+	/**
+	 * dictionary of user ids
+	 */
+	private IdDictionary userDict;
+
+	/**
+	 * dictionary of venue ids
+	 */
+	private IdDictionary venueDict;
+
+	/**
+	 * location of each user index, null if it is unknown
+	 */
+	private PointObject[] userLocations;
+
+	/**
+	 * location of each venue index, null if it is unknown
+	 */
+	private PointObject[] venueLocations;
+
+	/**
+	 * check-in matrix. Rows are users, columns are venues
+	 */
+	private CheckinMatrix checkins;
+
+	/**
+	 * indices of neighbors of each venue
+	 */
+	private int[][] neighbors;
+
+	/**
+	 * indices of friends of each user, null if there is no friendship information
+	 */
+	private int[][] friends;
+
+	public Dataset(IdDictionary userDict, IdDictionary venueDict, PointObject[] userLocations, PointObject[] venueLocations,
+			CheckinMatrix checkins, int[][] neighbors, int[][] friends) {
+		this.userDict = userDict;
+		this.venueDict = venueDict;
+		this.userLocations = userLocations;
+		this.venueLocations = venueLocations;
+		this.checkins = checkins;
+		this.neighbors = neighbors;
+		this.friends = friends;
+	}
+
+	/**
+	 * read data from text files.
+	 * Users are interned in the order of uFile then the check-in file, venues in the order of the check-in file.
+	 * Venues without check-ins are not interned because we dont care them
+	 * @param uFile		file name of location of users, null if it is not used
+	 * @param vFile		file name of location of venues
+	 * @param nFile		file name of neighbors of each venue, null if they are built later by buildNeighbors.
+	 * 					Venues which are not in it have no neighbor, so their predictions have no competition nor support term
+	 * @param fFile		file name of friendship, null if it is not used
+	 * @param cksFile	file name of check-ins information
+	 * @return			dataset
+	 */
+	public static Dataset fromText(String uFile, String vFile, String nFile, String fFile, String cksFile) {
+		IdDictionary userDict = new IdDictionary();
+		IdDictionary venueDict = new IdDictionary();
+
+		ArrayList<PointObject> uInfo = new ArrayList<>();
+		if (uFile != null)
+			uInfo = ReadFile.readLocation(uFile, userDict, true);
+
+		CheckinMatrix checkins = ReadFile.readNumCksFile(cksFile, userDict, venueDict);
+
+		ArrayList<PointObject> vInfo = ReadFile.readLocation(vFile, venueDict, false);
+
+		int[][] neighbors = nFile == null ? new int[venueDict.size()][] : ReadFile.readNeighbors(nFile, venueDict);
+		for (int v = 0; v < neighbors.length; v++) {
+			if (neighbors[v] == null)
+				neighbors[v] = new int[0];
+		}
+
+		int[][] friends = null;
+		if (fFile != null)
+			friends = ReadFile.readFriendship(fFile, userDict);
+
+		return new Dataset(userDict, venueDict, toArray(uInfo, userDict.size()), toArray(vInfo, venueDict.size()),
+				checkins, neighbors, friends);
+	}
+
+	private static PointObject[] toArray(ArrayList<PointObject> list, int size) {
+		PointObject[] result = new PointObject[size];
+		for (int i = 0; i < list.size(); i++)
+			result[i] = list.get(i);
+		return result;
+	}
+
+	/**
+	 * replace neighbors of venues by at most n nearest venues which are not further than radius (see utils.NeighborGraph)
+	 * @param n			maximum number of neighbors
+	 * @param radius	radius in meter, infinity if there is no limit
+	 */
+	public void buildNeighbors(int n, double radius) {
+		neighbors = NeighborGraph.build(venueLocations, n, radius);
+	}
+
+	public IdDictionary getUserDict() {
+		return userDict;
+	}
+
+	public IdDictionary getVenueDict() {
+		return venueDict;
+	}
+
+	public PointObject[] getUserLocations() {
+		return userLocations;
+	}
+
+	public PointObject[] getVenueLocations() {
+		return venueLocations;
+	}
+
+	public CheckinMatrix getCheckins() {
+		return checkins;
+	}
+
+	public int[][] getNeighbors() {
+		return neighbors;
+	}
+
+	public int[][] getFriends() {
+		return friends;
+	}
+}
@@ -0,0 +1,43 @@
+package object;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * factor store backed by a buffer outside of the heap. 
+ * The buffer can also be a view of a memory mapped file (for example a block of a model checkpoint)
+ * @author tndoan
+ *
+ */
+public class DirectFactorStore extends FactorStore {
+
+	private final DoubleBuffer data;
+
+	public DirectFactorStore(int size, int k) {
+		super(size, k);
+		this.data = ByteBuffer.allocateDirect(8 * size * k).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+
+	/**
+	 * use the buffer as the store without copying it
+	 * @param data	buffer of size * k values. If it is read-only, the store is read-only too
+	 * @param size	number of vectors
+	 * @param k		length of each vector
+	 */
+	public DirectFactorStore(DoubleBuffer data, int size, int k) {
+		super(size, k);
+		assert(data.capacity() == size * k);
+		this.data = data;
+	}
+
+	@Override
+	public double getFlat(int p) {
+		return data.get(p);
+	}
+
+	@Override
+	public void setFlat(int p, double x) {
+		data.put(p, x);
+	}
+}
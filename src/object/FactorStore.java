@@ -0,0 +1,271 @@
+package object;
+
+import java.util.Random;
+
+/**
+ * one contiguous block of parameters: size vectors of k values each, stored with stride k.
+ * Vector i is in flat positions i * k .. i * k + k - 1.
+ * User and venue objects are views into these blocks, so the whole block can also be used as a flat parameter vector.
+ * @author tndoan
+ *
+ */
+public abstract class FactorStore {
+
+	/**
+	 * where the values are stored
+	 */
+	public enum Storage {
+		/**
+		 * one double[] on the heap
+		 */
+		HEAP,
+		/**
+		 * direct buffer outside of the heap
+		 */
+		DIRECT,
+		/**
+		 * one float[] on the heap. Arithmetic is still done in double
+		 */
+		FLOAT
+	}
+
+	/**
+	 * number of vectors
+	 */
+	protected final int size;
+
+	/**
+	 * length of each vector
+	 */
+	protected final int k;
+
+	protected FactorStore(int size, int k) {
+		this.size = size;
+		this.k = k;
+	}
+
+	/**
+	 * 
+	 * @param storage	where the values are stored
+	 * @param size		number of vectors
+	 * @param k			length of each vector
+	 * @return			store whose values are all 0
+	 */
+	public static FactorStore create(Storage storage, int size, int k) {
+		switch (storage) {
+		case DIRECT:
+			return new DirectFactorStore(size, k);
+		case FLOAT:
+			return new FloatFactorStore(size, k);
+		default:
+			return new HeapFactorStore(size, k);
+		}
+	}
+
+	/**
+	 * 
+	 * @param p	flat position
+	 * @return	value at position p
+	 */
+	public abstract double getFlat(int p);
+
+	/**
+	 * 
+	 * @param p	flat position
+	 * @param x	new value at position p
+	 */
+	public abstract void setFlat(int p, double x);
+
+	/**
+	 * 
+	 * @param i	index of vector
+	 * @param t	index of element in the vector
+	 * @return	t-th element of vector i
+	 */
+	public double get(int i, int t) {
+		return getFlat(i * k + t);
+	}
+
+	/**
+	 * 
+	 * @param i	index of vector
+	 * @param t	index of element in the vector
+	 * @param x	new value of t-th element of vector i
+	 */
+	public void set(int i, int t, double x) {
+		setFlat(i * k + t, x);
+	}
+
+	/**
+	 * 
+	 * @param i	index of vector in this store
+	 * @param o	other store whose vectors have the same length
+	 * @param j	index of vector in o
+	 * @return	inner product of vector i of this store and vector j of o
+	 */
+	public double dot(int i, FactorStore o, int j) {
+		double result = 0.0;
+		for (int t = 0; t < k; t++)
+			result += get(i, t) * o.get(j, t);
+		return result;
+	}
+
+	/**
+	 * 
+	 * @param i		index of vector in this store
+	 * @param o		other store whose vectors have the same length
+	 * @param rows	indices of vectors in o
+	 * @param out	out[j] receives the inner product of vector i of this store and vector rows[j] of o
+	 */
+	public void multiDot(int i, FactorStore o, int[] rows, double[] out) {
+		for (int j = 0; j < rows.length; j++)
+			out[j] = dot(i, o, rows[j]);
+	}
+
+	/**
+	 * 
+	 * @param i		index of vector in this store
+	 * @param o		other store whose vectors have the same length
+	 * @param out	out[j] receives the inner product of vector i of this store and vector j of o, for every vector of o
+	 */
+	public void dotAll(int i, FactorStore o, double[] out) {
+		for (int j = 0; j < o.size(); j++)
+			out[j] = dot(i, o, j);
+	}
+
+	/**
+	 * out += sum of w[j] * vector rows[j]
+	 * @param rows	indices of vectors
+	 * @param w		weight of each vector
+	 * @param out	vector of length k
+	 */
+	public void addWeighted(int[] rows, double[] w, double[] out) {
+		for (int j = 0; j < rows.length; j++) {
+			for (int t = 0; t < k; t++)
+				out[t] += w[j] * get(rows[j], t);
+		}
+	}
+
+	/**
+	 * 
+	 * @param i	index of vector
+	 * @return	square norm of vector i
+	 */
+	public double sqrNorm(int i) {
+		return dot(i, this, i);
+	}
+
+	/**
+	 * 
+	 * @param i	index of vector in this store
+	 * @param o	other store whose vectors have the same length
+	 * @param j	index of vector in o
+	 * @return	square of Euclidean distance between vector i of this store and vector j of o
+	 */
+	public double sqrDistance(int i, FactorStore o, int j) {
+		double result = 0.0;
+		for (int t = 0; t < k; t++) {
+			double d = get(i, t) - o.get(j, t);
+			result += d * d;
+		}
+		return result;
+	}
+
+	/**
+	 * vector i += a * x
+	 * @param i	index of vector
+	 * @param a	scalar value
+	 * @param x	vector of length k
+	 */
+	public void add(int i, double a, double[] x) {
+		for (int t = 0; t < k; t++)
+			set(i, t, get(i, t) + a * x[t]);
+	}
+
+	/**
+	 * 
+	 * @param i		index of vector
+	 * @param dst	array of length k which receives vector i
+	 */
+	public void copyTo(int i, double[] dst) {
+		for (int t = 0; t < k; t++)
+			dst[t] = get(i, t);
+	}
+
+	/**
+	 * 
+	 * @param i		index of vector
+	 * @param src	array of length k which is copied into vector i
+	 */
+	public void copyFrom(int i, double[] src) {
+		for (int t = 0; t < k; t++)
+			set(i, t, src[t]);
+	}
+
+	/**
+	 * copy all values into dst[off .. off + length() - 1]
+	 * @param dst	flat vector
+	 * @param off	position of the first value in dst
+	 */
+	public void copyTo(double[] dst, int off) {
+		for (int p = 0; p < length(); p++)
+			dst[off + p] = getFlat(p);
+	}
+
+	/**
+	 * copy src[off .. off + length() - 1] into all values
+	 * @param src	flat vector
+	 * @param off	position of the first value in src
+	 */
+	public void copyFrom(double[] src, int off) {
+		for (int p = 0; p < length(); p++)
+			setFlat(p, src[off + p]);
+	}
+
+	/**
+	 * 
+	 * @param storage	where the values of the copy are stored
+	 * @return			copy of this store
+	 */
+	public FactorStore copy(Storage storage) {
+		FactorStore result = create(storage, size, k);
+		for (int p = 0; p < length(); p++)
+			result.setFlat(p, getFlat(p));
+		return result;
+	}
+
+	/**
+	 * set every value of vector i to a random number in [0, scale)
+	 * @param i		index of vector
+	 * @param r		random generator
+	 * @param scale	upper bound of values
+	 */
+	public void randomize(int i, Random r, double scale) {
+		for (int t = 0; t < k; t++)
+			set(i, t, r.nextDouble() * scale);
+	}
+
+	/**
+	 * 
+	 * @return	number of vectors
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 
+	 * @return	length of each vector
+	 */
+	public int k() {
+		return k;
+	}
+
+	/**
+	 * 
+	 * @return	number of values in the store
+	 */
+	public int length() {
+		return size * k;
+	}
+}
@@ -0,0 +1,72 @@
+package object;
+
+/**
+ * factor store backed by one float[] on the heap. It takes half of the memory of HeapFactorStore.
+ * Values are rounded to float when they are stored but all arithmetic (inner products, updates) is done in double
+ * @author tndoan
+ *
+ */
+public class FloatFactorStore extends FactorStore {
+
+	private final float[] data;
+
+	public FloatFactorStore(int size, int k) {
+		super(size, k);
+		this.data = new float[size * k];
+	}
+
+	/**
+	 * 
+	 * @return	the array of all values. Vector i starts at i * k()
+	 */
+	public float[] array() {
+		return data;
+	}
+
+	@Override
+	public double getFlat(int p) {
+		return data[p];
+	}
+
+	@Override
+	public void setFlat(int p, double x) {
+		data[p] = (float) x;
+	}
+
+	@Override
+	public double get(int i, int t) {
+		return data[i * k + t];
+	}
+
+	@Override
+	public void set(int i, int t, double x) {
+		data[i * k + t] = (float) x;
+	}
+
+	@Override
+	public double dot(int i, FactorStore o, int j) {
+		if (!(o instanceof FloatFactorStore))
+			return super.dot(i, o, j);
+
+		float[] other = ((FloatFactorStore) o).data;
+		int a = i * k, b = j * k;
+		double result = 0.0;
+		for (int t = 0; t < k; t++)
+			result += (double) data[a + t] * other[b + t];
+		return result;
+	}
+
+	@Override
+	public void add(int i, double a, double[] x) {
+		int off = i * k;
+		for (int t = 0; t < k; t++)
+			data[off + t] = (float) (data[off + t] + a * x[t]);
+	}
+
+	@Override
+	public void copyTo(int i, double[] dst) {
+		int off = i * k;
+		for (int t = 0; t < k; t++)
+			dst[t] = data[off + t];
+	}
+}
@@ -0,0 +1,92 @@
+package object;
+
+import utils.VectorKernels;
+
+/**
+ * factor store backed by one double[] on the heap
+ * @author tndoan
+ *
+ */
+public class HeapFactorStore extends FactorStore {
+
+	private final double[] data;
+
+	public HeapFactorStore(int size, int k) {
+		super(size, k);
+		this.data = new double[size * k];
+	}
+
+	/**
+	 * 
+	 * @return	the array of all values. Vector i starts at i * k()
+	 */
+	public double[] array() {
+		return data;
+	}
+
+	@Override
+	public double getFlat(int p) {
+		return data[p];
+	}
+
+	@Override
+	public void setFlat(int p, double x) {
+		data[p] = x;
+	}
+
+	@Override
+	public double get(int i, int t) {
+		return data[i * k + t];
+	}
+
+	@Override
+	public void set(int i, int t, double x) {
+		data[i * k + t] = x;
+	}
+
+	@Override
+	public double dot(int i, FactorStore o, int j) {
+		if (!(o instanceof HeapFactorStore))
+			return super.dot(i, o, j);
+		return VectorKernels.dot(data, i * k, ((HeapFactorStore) o).data, j * k, k);
+	}
+
+	@Override
+	public void multiDot(int i, FactorStore o, int[] rows, double[] out) {
+		if (!(o instanceof HeapFactorStore)) {
+			super.multiDot(i, o, rows, out);
+			return;
+		}
+		VectorKernels.multiDot(data, i * k, ((HeapFactorStore) o).data, rows, k, out);
+	}
+
+	@Override
+	public void addWeighted(int[] rows, double[] w, double[] out) {
+		VectorKernels.addWeightedRows(data, rows, w, k, out);
+	}
+
+	@Override
+	public void add(int i, double a, double[] x) {
+		VectorKernels.axpy(a, x, 0, data, i * k, k);
+	}
+
+	@Override
+	public void copyTo(int i, double[] dst) {
+		System.arraycopy(data, i * k, dst, 0, k);
+	}
+
+	@Override
+	public void copyFrom(int i, double[] src) {
+		System.arraycopy(src, 0, data, i * k, k);
+	}
+
+	@Override
+	public void copyTo(double[] dst, int off) {
+		System.arraycopy(data, 0, dst, off, data.length);
+	}
+
+	@Override
+	public void copyFrom(double[] src, int off) {
+		System.arraycopy(src, off, data, 0, data.length);
+	}
+}
@@ -16,6 +16,11 @@ public class PointObject {
 	 */
 	private double lng;
 	
+	/**
+	 * latitude and longitude in radians, and cosine of the latitude, used by the distances of utils.Distance
+	 */
+	private double latRad, lngRad, cosLat;
+	
 	/**
 	 * constructor
 	 * @param lat	latitude
@@ -24,6 +29,7 @@ public class PointObject {
 	public PointObject(double lat, double lng){
 		this.lat = lat;
 		this.lng = lng;
+		precompute();
 	}
 	
 	/**
@@ -40,6 +46,13 @@ public class PointObject {
 			this.lat = Double.parseDouble(comp[0]);
 			this.lng = Double.parseDouble(comp[1]);
 		}
+		precompute();
+	}
+	
+	private void precompute() {
+		latRad = Math.toRadians(lat);
+		lngRad = Math.toRadians(lng);
+		cosLat = Math.cos(latRad);
 	}
 
 	/**
@@ -58,6 +71,30 @@ public class PointObject {
 		return lng;
 	}
 	
+	/**
+	 * 
+	 * @return	latitude in radians
+	 */
+	public double getLatRad() {
+		return latRad;
+	}
+	
+	/**
+	 * 
+	 * @return	longitude in radians
+	 */
+	public double getLngRad() {
+		return lngRad;
+	}
+	
+	/**
+	 * 
+	 * @return	cosine of the latitude
+	 */
+	public double getCosLat() {
+		return cosLat;
+	}
+	
 	/**
 	 * to String
 	 */
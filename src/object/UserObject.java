@@ -1,9 +1,6 @@
 package object;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Random;
-import java.util.Set;
 
 public class UserObject {
 	/**
@@ -12,9 +9,9 @@ public class UserObject {
 	private PointObject location;
 	
 	/**
-	 * checkin map whose key is venue id, value is number of check-in that user has made in this venue
+	 * check-in matrix. Check-ins of this user are the row of his index
 	 */
-	private HashMap<String, Double> checkinMap;
+	private CheckinMatrix checkins;
 	
 	/**
 	 * id of user
@@ -22,22 +19,30 @@ public class UserObject {
 	private String id;
 	
 	/**
-	 * latent factor vector
+	 * dense index of user in the model
 	 */
-	private double[] factors;
+	private int index;
 	
 	/**
-	 * bias parameter of user
+	 * latent factor vectors of all users. The vector of this user is the one of his index
 	 */
-	private double bias;
+	private FactorStore factors;
 	
-	private ArrayList<String> listOfFriends;
+	/**
+	 * bias parameters of all users (vectors of length 1)
+	 */
+	private FactorStore bias;
+	
+	/**
+	 * indices of his friends
+	 */
+	private int[] listOfFriends;
 	
 	/**
 	 * 
-	 * @return	list of id of his friends
+	 * @return	list of indices of his friends
 	 */
-	public ArrayList<String> getListOfFriends() {
+	public int[] getListOfFriends() {
 		return listOfFriends;
 	}
 
@@ -46,7 +51,7 @@ public class UserObject {
 	 * @return
 	 */
 	public double getBias() {
-		return bias;
+		return bias.getFlat(index);
 	}
 
 	/**
@@ -54,28 +59,72 @@ public class UserObject {
 	 * @param bias
 	 */
 	public void setBias(double bias) {
-		this.bias = bias;
+		this.bias.setFlat(index, bias);
 	}
 
+	/**
+	 * 
+	 * @return	copy of latent factor vector
+	 */
 	public double[] getFactors() {
-		return factors;
+		double[] result = new double[factors.k()];
+		factors.copyTo(index, result);
+		return result;
+	}
+
+	/**
+	 * copy latent factor vector without allocation
+	 * @param dst	array of length k
+	 * @return		dst
+	 */
+	public double[] getFactors(double[] dst) {
+		factors.copyTo(index, dst);
+		return dst;
+	}
+
+	/**
+	 * latent factor vector += a * x, in place
+	 * @param a	scalar value
+	 * @param x	vector of length k
+	 */
+	public void addToFactors(double a, double[] x) {
+		factors.add(index, a, x);
 	}
 
+	/**
+	 * copy the values into latent factor vector
+	 * @param factors
+	 */
 	public void setFactors(double[] factors) {
+		this.factors.copyFrom(index, factors);
+	}
+	
+	/**
+	 * 
+	 * @param t	index of element
+	 * @return	t-th element of latent factor vector
+	 */
+	public double getFactor(int t) {
+		return factors.get(index, t);
+	}
+	
+	/**
+	 * view this user on other stores, for example after they are moved to other storage
+	 * @param bias		bias parameters of all users
+	 * @param factors	latent factor vectors of all users
+	 */
+	public void attach(FactorStore bias, FactorStore factors) {
+		this.bias = bias;
 		this.factors = factors;
 	}
 
 	/**
 	 * get how many check-in user has done in this venue
-	 * @param vIds	venue id
+	 * @param vIdx	venue index
 	 * @return		number of check-in
 	 */
-	public double retrieveNumCks(String vIds){
-		Double num = checkinMap.get(vIds);
-		if (num == null)
-			return 0.0;
-		else
-			return num;
+	public double retrieveNumCks(int vIdx){
+		return checkins.getNumCks(index, vIdx);
 	}
 
 	public PointObject getLocation() {
@@ -86,32 +135,41 @@ public class UserObject {
 		return id;
 	}
 	
+	public int getIndex() {
+		return index;
+	}
+	
 	/**
 	 * 
 	 * @param id
+	 * @param index			dense index of user
 	 * @param location
-	 * @param checkinMap
-	 * @param k				number of latent factors
+	 * @param checkins		check-in matrix of all users
+	 * @param bias			bias parameters of all users
+	 * @param factors		latent factor vectors of all users
+	 * @param listOfFriend	indices of friends
 	 */
-	public UserObject(String id, PointObject location, HashMap<String, Double> checkinMap, int k, ArrayList<String> listOfFriend){
+	public UserObject(String id, int index, PointObject location, CheckinMatrix checkins, FactorStore bias, FactorStore factors, 
+			int[] listOfFriend){
 		Random r = new Random();
 		this.id = id;
+		this.index = index;
 		this.location = location;
-		this.checkinMap = checkinMap;
+		this.checkins = checkins;
+		this.bias = bias;
+		this.factors = factors;
 		
-		this.factors = new double[k];
-		for (int i = 0; i < k; i++)
-			factors[i] = r.nextDouble() * 0.1;
+		factors.randomize(index, r, 0.1);
 		
-		this.bias = 0.0;
+		bias.setFlat(index, 0.0);
 		this.listOfFriends = listOfFriend;
 	}
 	
 	/**
 	 * 
-	 * @return the set of venue id where user has done check-in
+	 * @return the number of venues where user has done check-in
 	 */
-	public Set<String> getAllVenues() {
-		return checkinMap.keySet();
+	public int getNumVenues() {
+		return checkins.rowEnd(index) - checkins.rowStart(index);
 	}
 }
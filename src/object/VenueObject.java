@@ -1,6 +1,5 @@
 package object;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 /**
@@ -12,43 +11,77 @@ public class VenueObject {
 	/**
 	 * 
 	 * @param id
-	 * @param totalCks
+	 * @param index			dense index of venue
 	 * @param location
-	 * @param neighbors
-	 * @param userIds
-	 * @param k				number of latent factors for intrinsic and extrinsic vectors
+	 * @param neighbors		indices of neighbors
+	 * @param checkins		check-in matrix. Users who have check-ins in this venue are the column of its index
+	 * @param bias			bias parameters of all venues
+	 * @param iFactors		intrinsic vectors of all venues
+	 * @param eFactors		extrinsic vectors of all venues
 	 */
-	public VenueObject(String id, int totalCks,	PointObject location, ArrayList<String> neighbors, 
-			ArrayList<String> userIds, int k){
+	public VenueObject(String id, int index, PointObject location, int[] neighbors, 
+			CheckinMatrix checkins, FactorStore bias, FactorStore iFactors, FactorStore eFactors){
 		Random r = new Random();
 		this.id = id;
+		this.index = index;
 		this.location = location;
 		this.neighbors = neighbors;
-		this.userIds = userIds;
-		this.totalCks = totalCks;
+		this.checkins = checkins;
 		
-		this.iFactors = new double[k];
-		for (int i = 0; i < k; i++)
-			iFactors[i] = r.nextDouble() * 0.1;
+		this.totalCks = 0;
+		for (int q = checkins.colStart(index); q < checkins.colEnd(index); q++)
+			this.totalCks += (int) checkins.numCksAt(checkins.rowPosAt(q));
 		
-		this.eFactors = new double[k];
-		for (int i = 0; i < k; i++)
-			eFactors[i] = r.nextDouble() * 0.1;
-		
-		this.bias = 0.0;
+		attach(bias, iFactors, eFactors);
+		iFactors.randomize(index, r, 0.1);
+		eFactors.randomize(index, r, 0.1);
+		bias.setFlat(index, 0.0);
+	}
+	
+	/**
+	 * view this venue on other stores, for example after they are moved to other storage
+	 * @param bias		bias parameters of all venues
+	 * @param iFactors	intrinsic vectors of all venues
+	 * @param eFactors	extrinsic vectors of all venues
+	 */
+	public void attach(FactorStore bias, FactorStore iFactors, FactorStore eFactors) {
+		this.bias = bias;
+		this.iFactors = iFactors;
+		this.eFactors = eFactors;
 	}
 	
 	/**
-	 * extrinsic characteristic of venue
+	 * extrinsic characteristic of all venues. The one of this venue is the vector of its index
 	 */
-	private double[] eFactors;
+	private FactorStore eFactors;
 	
 	/**
-	 * return extrinsic characteristic of venue
+	 * return copy of extrinsic characteristic of venue
 	 * @return
 	 */
 	public double[] getEFactors() {
-		return eFactors;
+		double[] result = new double[eFactors.k()];
+		eFactors.copyTo(index, result);
+		return result;
+	}
+
+	/**
+	 * copy extrinsic characteristic of venue without allocation
+	 * @param dst	array of length k
+	 * @return		dst
+	 */
+	public double[] getEFactors(double[] dst) {
+		eFactors.copyTo(index, dst);
+		return dst;
+	}
+
+	/**
+	 * extrinsic characteristic += a * x, in place
+	 * @param a	scalar value
+	 * @param x	vector of length k
+	 */
+	public void addToEFactors(double a, double[] x) {
+		eFactors.add(index, a, x);
 	}
 
 	/**
@@ -56,20 +89,50 @@ public class VenueObject {
 	 * @param eFactors
 	 */
 	public void setEFactors(double[] eFactors) {
-		this.eFactors = eFactors;
+		this.eFactors.copyFrom(index, eFactors);
+	}
+	
+	/**
+	 * 
+	 * @param t	index of element
+	 * @return	t-th element of extrinsic characteristic of venue
+	 */
+	public double getEFactor(int t) {
+		return eFactors.get(index, t);
 	}
 
 	/**
-	 * intrinsic characteristic of venue
+	 * intrinsic characteristic of all venues. The one of this venue is the vector of its index
 	 */
-	private double[] iFactors;
+	private FactorStore iFactors;
 	
 	/**
-	 * get the intrinsic latent vector of venue
+	 * get copy of the intrinsic latent vector of venue
 	 * @return
 	 */
 	public double[] getIFactors() {
-		return iFactors;
+		double[] result = new double[iFactors.k()];
+		iFactors.copyTo(index, result);
+		return result;
+	}
+
+	/**
+	 * copy intrinsic latent vector of venue without allocation
+	 * @param dst	array of length k
+	 * @return		dst
+	 */
+	public double[] getIFactors(double[] dst) {
+		iFactors.copyTo(index, dst);
+		return dst;
+	}
+
+	/**
+	 * intrinsic latent vector += a * x, in place
+	 * @param a	scalar value
+	 * @param x	vector of length k
+	 */
+	public void addToIFactors(double a, double[] x) {
+		iFactors.add(index, a, x);
 	}
 
 	/**
@@ -77,7 +140,16 @@ public class VenueObject {
 	 * @param factors
 	 */
 	public void setIFactors(double[] factors) {
-		this.iFactors = factors;
+		this.iFactors.copyFrom(index, factors);
+	}
+	
+	/**
+	 * 
+	 * @param t	index of element
+	 * @return	t-th element of intrinsic characteristic of venue
+	 */
+	public double getIFactor(int t) {
+		return iFactors.get(index, t);
 	}
 
 	/**
@@ -96,14 +168,19 @@ public class VenueObject {
 	private String id;
 	
 	/**
-	 * list of id of neighbors
+	 * dense index of venue in the model
 	 */
-	private ArrayList<String> neighbors;
+	private int index;
 	
 	/**
-	 * list of user ids who have check-in in this venue
+	 * list of indices of neighbors
 	 */
-	private ArrayList<String> userIds;
+	private int[] neighbors;
+	
+	/**
+	 * check-in matrix. Users who have check-in in this venue are the column of its index
+	 */
+	private CheckinMatrix checkins;
 
 	public PointObject getLocation() {
 		return location;
@@ -113,26 +190,37 @@ public class VenueObject {
 		return id;
 	}
 
-	public ArrayList<String> getNeighbors() {
+	public int getIndex() {
+		return index;
+	}
+
+	public int[] getNeighbors() {
 		return neighbors;
 	}
 
-	public ArrayList<String> getUserIds() {
-		return userIds;
+	/**
+	 * 
+	 * @return	number of users who have check-in in this venue
+	 */
+	public int getNumUsers() {
+		return checkins.colEnd(index) - checkins.colStart(index);
 	}
 
 	public int getTotalCks() {
 		return totalCks;
 	}
 	
-	private double bias;
+	/**
+	 * bias parameters of all venues (vectors of length 1)
+	 */
+	private FactorStore bias;
 
 	/**
 	 * get the bias of venue
 	 * @return
 	 */
 	public double getBias() {
-		return bias;
+		return bias.getFlat(index);
 	}
 
 	/**
@@ -140,7 +228,7 @@ public class VenueObject {
 	 * @param bias
 	 */
 	public void setBias(double bias) {
-		this.bias = bias;
+		this.bias.setFlat(index, bias);
 	}
 	
 	
@@ -0,0 +1,136 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * read a binary file written by BinaryWriter. Arrays are copied from memory mapped regions of the file,
+ * or returned as mapped views without copying (mapDoubles)
+ * @author tndoan
+ *
+ */
+public class BinaryReader implements Closeable {
+
+	/**
+	 * largest region mapped at once
+	 */
+	private static final long WINDOW = 1 << 30;
+
+	private FileChannel ch;
+
+	/**
+	 * position of the next value to read
+	 */
+	private long position;
+
+	private ByteBuffer scalar;
+
+	public BinaryReader(String filename) throws IOException {
+		ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		position = 0;
+		scalar = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * read n bytes at the current position into scalar buffer
+	 */
+	private ByteBuffer readScalar(int n) throws IOException {
+		scalar.clear().limit(n);
+		while (scalar.hasRemaining()) {
+			if (ch.read(scalar, position + scalar.position()) < 0)
+				throw new IOException("unexpected end of file");
+		}
+		position += n;
+		scalar.flip();
+		return scalar;
+	}
+
+	/**
+	 * map n bytes at the current position and move the position after them
+	 */
+	private ByteBuffer map(long n) throws IOException {
+		ByteBuffer result = ch.map(FileChannel.MapMode.READ_ONLY, position, n).order(ByteOrder.LITTLE_ENDIAN);
+		position += n;
+		return result;
+	}
+
+	public int getInt() throws IOException {
+		return readScalar(4).getInt();
+	}
+
+	public long getLong() throws IOException {
+		return readScalar(8).getLong();
+	}
+
+	public double getDouble() throws IOException {
+		return readScalar(8).getDouble();
+	}
+
+	public int[] getInts(int n) throws IOException {
+		int[] result = new int[n];
+		for (int off = 0; off < n; ) {
+			int len = (int) Math.min(n - off, WINDOW / 4);
+			map(4L * len).asIntBuffer().get(result, off, len);
+			off += len;
+		}
+		return result;
+	}
+
+	public double[] getDoubles(int n) throws IOException {
+		double[] result = new double[n];
+		for (int off = 0; off < n; ) {
+			int len = (int) Math.min(n - off, WINDOW / 8);
+			map(8L * len).asDoubleBuffer().get(result, off, len);
+			off += len;
+		}
+		return result;
+	}
+
+	public byte[] getBytes(int n) throws IOException {
+		byte[] result = new byte[n];
+		for (int off = 0; off < n; ) {
+			int len = (int) Math.min(n - off, WINDOW);
+			map(len).get(result, off, len);
+			off += len;
+		}
+		return result;
+	}
+
+	/**
+	 * map n doubles without copying them. The view stays valid after the reader is closed
+	 * @param n	number of doubles. 8 * n must be smaller than 2GB
+	 * @return	read-only view of the doubles
+	 * @throws IOException
+	 */
+	public DoubleBuffer mapDoubles(int n) throws IOException {
+		return map(8L * n).asDoubleBuffer();
+	}
+
+	/**
+	 * skip bytes until the position is a multiple of n. It is the reverse of BinaryWriter.align
+	 * @param n	alignment in bytes
+	 */
+	public void align(int n) {
+		if (position % n != 0)
+			position += n - position % n;
+	}
+
+	/**
+	 *
+	 * @return	position of the next value to read
+	 */
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		ch.close();
+	}
+}
@@ -0,0 +1,124 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * write primitive values and arrays to a binary file in little endian order.
+ * It is the writer of the files read by BinaryReader
+ * @author tndoan
+ *
+ */
+public class BinaryWriter implements Closeable {
+
+	private FileChannel ch;
+
+	private ByteBuffer buffer;
+
+	/**
+	 * number of bytes written so far, including the ones still in buffer
+	 */
+	private long position;
+
+	public BinaryWriter(String filename) throws IOException {
+		ch = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		position = 0;
+	}
+
+	/**
+	 * make sure buffer has space for n bytes
+	 */
+	private void ensure(int n) throws IOException {
+		if (buffer.remaining() < n)
+			flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			ch.write(buffer);
+		buffer.clear();
+	}
+
+	public void putInt(int x) throws IOException {
+		ensure(4);
+		buffer.putInt(x);
+		position += 4;
+	}
+
+	public void putLong(long x) throws IOException {
+		ensure(8);
+		buffer.putLong(x);
+		position += 8;
+	}
+
+	public void putDouble(double x) throws IOException {
+		ensure(8);
+		buffer.putDouble(x);
+		position += 8;
+	}
+
+	public void putInts(int[] x) throws IOException {
+		putInts(x, 0, x.length);
+	}
+
+	public void putInts(int[] x, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++)
+			putInt(x[i]);
+	}
+
+	public void putDoubles(double[] x) throws IOException {
+		putDoubles(x, 0, x.length);
+	}
+
+	public void putDoubles(double[] x, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++)
+			putDouble(x[i]);
+	}
+
+	public void putBytes(byte[] x) throws IOException {
+		putBytes(x, 0, x.length);
+	}
+
+	public void putBytes(byte[] x, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			ensure(1);
+			buffer.put(x[i]);
+			position++;
+		}
+	}
+
+	/**
+	 * write zero bytes until the position is a multiple of n. Arrays of 8 bytes values are aligned so they can be mapped efficiently
+	 * @param n	alignment in bytes
+	 * @throws IOException
+	 */
+	public void align(int n) throws IOException {
+		while (position % n != 0) {
+			ensure(1);
+			buffer.put((byte) 0);
+			position++;
+		}
+	}
+
+	/**
+	 *
+	 * @return	number of bytes written so far
+	 */
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		ch.close();
+	}
+}
@@ -0,0 +1,153 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import object.CheckinMatrix;
+
+/**
+ * signatures of the check-in vectors of popular venues, used by ModeSimilarity.APPROX_CKS_SIM.
+ * Each bit of a signature is the sign of the projection of the check-in vector of the venue on a random vector of +1 and -1
+ * (random hyperplanes, also known as SimHash). The fraction of different bits of two signatures estimates the angle
+ * between both vectors, so the cosine similarity of two popular venues costs a few words whatever their number of users.
+ *
+ * Venues with at most exactMaxUsers users have no signature. A pair which has one of them is computed exactly
+ * by a merge join (see Similarity.checkinProduct), which is cheap because the small list is galloped through the large one.
+ * @author tndoan
+ *
+ */
+public class CheckinSketch {
+
+	/**
+	 * seed of the random vectors, fixed so that runs on the same data give the same weights
+	 */
+	private static final long SEED = 0x2545F4914F6CDD1DL;
+
+	/**
+	 * default standard error of the estimated cosine
+	 */
+	public static final double DEFAULT_ERROR = 0.05;
+
+	/**
+	 * default number of users above which venues have a signature
+	 */
+	public static final int DEFAULT_EXACT_MAX_USERS = 1000;
+
+	private CheckinMatrix cks;
+
+	/**
+	 * number of 64 bit words of each signature
+	 */
+	private int numWords;
+
+	/**
+	 * slot of the signature of each venue, -1 if the venue is computed exactly
+	 */
+	private int[] slot;
+
+	/**
+	 * signatures, numWords words for each slot
+	 */
+	private long[] signatures;
+
+	/**
+	 * squared norm of the check-in vector of each venue
+	 */
+	private double[] sqrNorms;
+
+	/**
+	 * build the signatures of all popular venues in parallel
+	 * @param cks				check-in matrix
+	 * @param errorTarget		standard error of the estimated cosine, e.g. DEFAULT_ERROR. It sets the number of bits of signatures
+	 * @param exactMaxUsers		venues with at most exactMaxUsers users are always computed exactly, e.g. DEFAULT_EXACT_MAX_USERS
+	 */
+	public CheckinSketch(CheckinMatrix cks, double errorTarget, int exactMaxUsers) {
+		this.cks = cks;
+		this.numWords = numWords(errorTarget);
+
+		int numVenues = cks.getNumVenues();
+		slot = new int[numVenues];
+		int numSlots = 0;
+		for (int v = 0; v < numVenues; v++)
+			slot[v] = cks.colEnd(v) - cks.colStart(v) > exactMaxUsers ? numSlots++ : -1;
+
+		sqrNorms = new double[numVenues];
+		signatures = new long[numSlots * numWords];
+		IntStream.range(0, numVenues).parallel().forEach(v -> {
+			sqrNorms[v] = Similarity.sqrCheckinNorm(cks, v);
+			if (slot[v] >= 0)
+				sign(v);
+		});
+	}
+
+	/**
+	 * about pi^2 / (4 * error^2) bits are needed, because the standard error of the estimated angle is at most pi / (2 * sqrt(bits))
+	 * and the cosine does not change faster than the angle
+	 * @param error	standard error of the estimated cosine
+	 * @return		number of 64 bit words of a signature
+	 */
+	public static int numWords(double error) {
+		double bits = Math.PI * Math.PI / (4 * error * error);
+		return Math.max(1, (int) Math.ceil(bits / 64));
+	}
+
+	/**
+	 * fill the signature of venue v
+	 */
+	private void sign(int v) {
+		double[] sums = new double[64];
+		int off = slot[v] * numWords;
+		for (int w = 0; w < numWords; w++) {
+			Arrays.fill(sums, 0.0);
+			for (int q = cks.colStart(v); q < cks.colEnd(v); q++) {
+				double c = cks.numCksAt(cks.rowPosAt(q));
+				long r = random(cks.userAt(q), w); // 64 coordinates of the random vectors, one per bit
+				for (int b = 0; b < 64; b++)
+					sums[b] += ((r >>> b) & 1L) != 0 ? c : -c;
+			}
+			long word = 0L;
+			for (int b = 0; b < 64; b++) {
+				if (sums[b] >= 0.0)
+					word |= 1L << b;
+			}
+			signatures[off + w] = word;
+		}
+	}
+
+	/**
+	 * 64 random bits for a user and a word of signatures (mixing function of SplitMix64)
+	 */
+	private static long random(int u, int w) {
+		long z = SEED + u * 0x9E3779B97F4A7C15L + w * 0xD1B54A32D192ED03L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 *
+	 * @param v	venue index
+	 * @return	true if the similarities of v with other popular venues are estimated
+	 */
+	public boolean hasSignature(int v) {
+		return slot[v] >= 0;
+	}
+
+	/**
+	 *
+	 * @param s1	venue index of 1st venue
+	 * @param s2	venue index of 2nd venue
+	 * @return		cosine similarity of the check-in vectors of both venues, estimated if both have a signature and exact otherwise
+	 */
+	public double cosine(int s1, int s2) {
+		if (slot[s1] < 0 || slot[s2] < 0)
+			return Similarity.checkinProduct(cks, s1, s2) / Math.sqrt(sqrNorms[s1] * sqrNorms[s2]);
+
+		int off1 = slot[s1] * numWords, off2 = slot[s2] * numWords;
+		int diff = 0;
+		for (int w = 0; w < numWords; w++)
+			diff += Long.bitCount(signatures[off1 + w] ^ signatures[off2 + w]);
+		// check-ins are not negative, so the true cosine is never below 0
+		return Math.max(0.0, Math.cos(Math.PI * diff / (64.0 * numWords)));
+	}
+}
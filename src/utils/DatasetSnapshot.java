@@ -0,0 +1,167 @@
+package utils;
+
+import java.io.IOException;
+
+import object.CheckinMatrix;
+import object.Dataset;
+import object.PointObject;
+
+/**
+ * binary snapshot of a Dataset. Text files are parsed once by compile, then every run loads the snapshot
+ * by mapping the file and copying its arrays in bulk. Nothing is parsed or hashed again: dictionaries keep the hash tables
+ * they were written with. Arrays are copied out of the mapping (one bulk copy per array, neighbor and friend lists
+ * are then split per venue or user) rather than used as views, because the model and the check-in matrix index plain arrays.
+ * The cost of loading is the cost of copying the file once.
+ * 
+ * Format (little endian, arrays of 8 bytes values are aligned to 8 bytes):
+ * MAGIC, VERSION, flags (1 if there is friendship information)
+ * user dictionary, venue dictionary with their hash tables (see IdDictionary.write)
+ * latitude and longitude of each user, then of each venue (NaN if the location is unknown)
+ * check-in matrix (see CheckinMatrix.write)
+ * neighbors of venues, then friends of users if flags is 1: offsets (size + 1 ints) and indices
+ * @author tndoan
+ *
+ */
+public class DatasetSnapshot {
+
+	public static final int MAGIC = 0x44435653; // "SVCD"
+
+	public static final int VERSION = 2;
+
+	/**
+	 * write the dataset to a snapshot file
+	 * @param d			dataset
+	 * @param filename	name of snapshot file
+	 * @throws IOException
+	 */
+	public static void compile(Dataset d, String filename) throws IOException {
+		try (BinaryWriter out = new BinaryWriter(filename)) {
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(d.getFriends() == null ? 0 : 1);
+			out.putInt(0); // padding
+
+			d.getUserDict().write(out);
+			d.getVenueDict().write(out);
+			writeLocations(out, d.getUserLocations());
+			writeLocations(out, d.getVenueLocations());
+			d.getCheckins().write(out);
+			out.align(8);
+			writeAdjacency(out, d.getNeighbors());
+			if (d.getFriends() != null)
+				writeAdjacency(out, d.getFriends());
+		}
+	}
+
+	/**
+	 * read a snapshot file written by compile
+	 * @param filename	name of snapshot file
+	 * @return			dataset
+	 * @throws IOException	if the file is not a snapshot or its version is not supported
+	 */
+	public static Dataset load(String filename) throws IOException {
+		try (BinaryReader in = new BinaryReader(filename)) {
+			if (in.getInt() != MAGIC)
+				throw new IOException(filename + " is not a dataset snapshot");
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException("unsupported version of dataset snapshot: " + version);
+			boolean hasFriends = in.getInt() == 1;
+			in.getInt(); // padding
+
+			IdDictionary userDict = IdDictionary.read(in);
+			IdDictionary venueDict = IdDictionary.read(in);
+			PointObject[] userLocations = readLocations(in, userDict.size());
+			PointObject[] venueLocations = readLocations(in, venueDict.size());
+			CheckinMatrix checkins = CheckinMatrix.read(in);
+			in.align(8);
+			int[][] neighbors = readAdjacency(in, venueDict.size());
+			int[][] friends = hasFriends ? readAdjacency(in, userDict.size()) : null;
+
+			return new Dataset(userDict, venueDict, userLocations, venueLocations, checkins, neighbors, friends);
+		}
+	}
+
+	private static void writeLocations(BinaryWriter out, PointObject[] locations) throws IOException {
+		for (PointObject p : locations) {
+			out.putDouble(p == null ? Double.NaN : p.getLat());
+			out.putDouble(p == null ? Double.NaN : p.getLng());
+		}
+	}
+
+	private static PointObject[] readLocations(BinaryReader in, int size) throws IOException {
+		double[] latLng = in.getDoubles(2 * size);
+		PointObject[] result = new PointObject[size];
+		for (int i = 0; i < size; i++) {
+			if (!Double.isNaN(latLng[2 * i]))
+				result[i] = new PointObject(latLng[2 * i], latLng[2 * i + 1]);
+		}
+		return result;
+	}
+
+	private static void writeAdjacency(BinaryWriter out, int[][] lists) throws IOException {
+		int offset = 0;
+		for (int[] list : lists) {
+			out.putInt(offset);
+			offset += list == null ? 0 : list.length;
+		}
+		out.putInt(offset);
+		for (int[] list : lists) {
+			if (list != null)
+				out.putInts(list);
+		}
+		out.align(8);
+	}
+
+	private static int[][] readAdjacency(BinaryReader in, int size) throws IOException {
+		int[] offsets = in.getInts(size + 1);
+		int[] all = in.getInts(offsets[size]);
+		in.align(8);
+
+		int[][] result = new int[size][];
+		for (int i = 0; i < size; i++) {
+			result[i] = new int[offsets[i + 1] - offsets[i]];
+			System.arraycopy(all, offsets[i], result[i], 0, result[i].length);
+		}
+		return result;
+	}
+
+	/**
+	 * compile text files into a snapshot.
+	 * Arguments: uFile vFile nFile fFile cksFile snapshotFile [radius]. Use - for uFile or fFile if it is not available.
+	 * If nFile is a number n, the n nearest venues of each venue are used as its neighbors (see NeighborGraph).
+	 * The optional radius in meter keeps only neighbors within it. With a radius, n = 0 means all venues within the radius
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 6 && args.length != 7) {
+			System.err.println("usage: DatasetSnapshot <uFile|-> <vFile> <nFile|n> <fFile|-> <cksFile> <snapshotFile> [radius]");
+			return;
+		}
+		String uFile = args[0].equals("-") ? null : args[0];
+		String fFile = args[3].equals("-") ? null : args[3];
+		boolean isKnn = args[2].matches("\\d+");
+		double radius = args.length == 7 ? Double.parseDouble(args[6]) : Double.POSITIVE_INFINITY;
+		if (args.length == 7 && !isKnn) {
+			System.err.println("radius is only used when neighbors are built, give a number of neighbors instead of nFile");
+			return;
+		}
+		int n = isKnn ? Integer.parseInt(args[2]) : 0;
+		if (isKnn && n == 0) {
+			if (radius == Double.POSITIVE_INFINITY) {
+				System.err.println("give a radius when the number of neighbors is 0");
+				return;
+			}
+			n = Integer.MAX_VALUE;
+		}
+
+		long start = System.currentTimeMillis();
+		Dataset d = Dataset.fromText(uFile, args[1], isKnn ? null : args[2], fFile, args[4]);
+		if (isKnn)
+			d.buildNeighbors(n, radius);
+		compile(d, args[5]);
+		System.out.println("compiled " + d.getUserDict().size() + " users, " + d.getVenueDict().size() + " venues, "
+				+ d.getCheckins().nnz() + " check-ins in " + (System.currentTimeMillis() - start) + " ms");
+	}
+}
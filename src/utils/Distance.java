@@ -11,6 +11,38 @@ public class Distance {
 	
 	public final static double AVERAGE_RADIUS_OF_EARTH = 6371.0;
 	
+	/**
+	 * true if distance uses the equirectangular approximation instead of the haversine formula
+	 */
+	private static boolean equirectangular = Boolean.getBoolean("svc.distance.equirectangular");
+	
+	/**
+	 * 
+	 * @param b	true to use the equirectangular approximation in distance. 
+	 * 			Its error is far below a meter at the scale of a city, and it needs no trigonometric function
+	 */
+	public static void setEquirectangular(boolean b) {
+		equirectangular = b;
+	}
+	
+	/**
+	 * 
+	 * @return	true if distance uses the equirectangular approximation
+	 */
+	public static boolean isEquirectangular() {
+		return equirectangular;
+	}
+	
+	/**
+	 * 
+	 * @param p1
+	 * @param p2
+	 * @return		distance in meter between 2 points, by the haversine formula or by the equirectangular approximation
+	 */
+	public static double distance(PointObject p1, PointObject p2) {
+		return equirectangular ? equirectangularDistance(p1, p2) : calculateDistance(p1, p2);
+	}
+	
 	/**
 	 * 
 	 * @param p1
@@ -33,15 +65,28 @@ public class Distance {
 	public static double calculateDistance(PointObject p1, PointObject p2){
 	    double latDistance = Math.toRadians(p1.getLat() - p2.getLat());
 	    double lngDistance = Math.toRadians(p1.getLng() - p2.getLng());
+	    double sinLat = Math.sin(latDistance / 2);
+	    double sinLng = Math.sin(lngDistance / 2);
 
-	    double a = (Math.sin(latDistance / 2) * Math.sin(latDistance / 2)) +
-	                    (Math.cos(Math.toRadians(p1.getLat()))) *
-	                    (Math.cos(Math.toRadians(p2.getLat()))) *
-	                    (Math.sin(lngDistance / 2)) *
-	                    (Math.sin(lngDistance / 2));
+	    // cosines of latitudes are computed once by the points
+	    double a = (sinLat * sinLat) + p1.getCosLat() * p2.getCosLat() * sinLng * sinLng;
 
 	    double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
 
 	    return (double) AVERAGE_RADIUS_OF_EARTH * c * 1000.0;   
 	}
+	
+	/**
+	 * equirectangular approximation: points are projected on a plane which is tangent at the middle latitude.
+	 * The cosine of the middle latitude is the mean of the cosines of both latitudes, which is close enough for points of a city
+	 * @param p1
+	 * @param p2
+	 * @return		distance in meter between 2 points
+	 */
+	public static double equirectangularDistance(PointObject p1, PointObject p2) {
+		double x = (p1.getLngRad() - p2.getLngRad()) * 0.5 * (p1.getCosLat() + p2.getCosLat());
+		double y = p1.getLatRad() - p2.getLatRad();
+		
+		return AVERAGE_RADIUS_OF_EARTH * Math.sqrt(x * x + y * y) * 1000.0;
+	}
 }
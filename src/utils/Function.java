@@ -1,16 +1,37 @@
 package utils;
 
-import org.apache.commons.math3.distribution.NormalDistribution;
-
 /**
  * 
+ * Sigmoid, density and cdf of the standard Gaussian distribution can be computed in a fast mode (see Model.setFastMath).
+ * Maximum errors of the fast mode are checked by FunctionAccuracy:
+ * <ul>
+ * <li>sigmoidFunction, diffSigmoid: absolute error below 2e-7 (interpolated table)</li>
+ * <li>normal: relative error below 1e-13 (closed form)</li>
+ * <li>cdf: relative error below 2e-7 (Chebyshev approximation of erfc)</li>
+ * <li>diffLogCDF: relative error below 3e-7</li>
+ * </ul>
+ * The exact mode does not use commons-math, whose cdf allocates and is 0 below -8: erfc is the rational approximation of Cody
+ * (relative error close to the machine precision) and both modes keep their relative accuracy in the left tail.
  * @author tndoan
  *
  */
 public class Function {
 
-	private static NormalDistribution standardGau = new NormalDistribution();
-
+	private static final double INV_SQRT_2PI = 1.0 / Math.sqrt(2.0 * Math.PI);
+	
+	/**
+	 * sigmoid is tabulated in [-SIGMOID_RANGE, SIGMOID_RANGE] with SIGMOID_STEPS points per unit
+	 */
+	private static final int SIGMOID_RANGE = 16;
+	
+	private static final int SIGMOID_STEPS = 256;
+	
+	private static final double[] SIGMOID_TABLE = new double[2 * SIGMOID_RANGE * SIGMOID_STEPS + 1];
+	static {
+		for (int i = 0; i < SIGMOID_TABLE.length; i++)
+			SIGMOID_TABLE[i] = 1.0 / (1.0 + Math.exp(-((double) i / SIGMOID_STEPS - SIGMOID_RANGE)));
+	}
+	
 	/**
 	 * calculate the sigmoid function of x
 	 * 
@@ -18,10 +39,142 @@ public class Function {
 	 * @return
 	 */
 	public static double sigmoidFunction(double x) {
+		return sigmoidFunction(x, false);
+	}
+	
+	/**
+	 * 
+	 * @param x
+	 * @param fast	true if the table is used
+	 * @return		sigmoid function of x
+	 */
+	public static double sigmoidFunction(double x, boolean fast) {
+		if (fast)
+			return fastSigmoid(x);
 		double result = 1.0 / (1.0 + Math.exp(-x));
 		return result;
 	}
 	
+	/**
+	 * derivative of the sigmoid function at x
+	 * @param x
+	 * @return	e^-x / (1 + e^-x)^2
+	 */
+	public static double diffSigmoid(double x) {
+		return diffSigmoid(x, false);
+	}
+	
+	/**
+	 * 
+	 * @param x
+	 * @param fast	true if the table is used
+	 * @return		derivative of the sigmoid function at x
+	 */
+	public static double diffSigmoid(double x, boolean fast) {
+		if (fast) {
+			double s = fastSigmoid(x);
+			return s * (1.0 - s);
+		}
+		double e = Math.exp(-x);
+		return e / ((1.0 + e) * (1.0 + e));
+	}
+	
+	/**
+	 * sigmoid by linear interpolation in a table
+	 */
+	static double fastSigmoid(double x) {
+		if (!(x > -SIGMOID_RANGE)) // it is also NaN
+			return x <= -SIGMOID_RANGE ? 0.0 : x;
+		if (x >= SIGMOID_RANGE)
+			return 1.0;
+		double pos = (x + SIGMOID_RANGE) * SIGMOID_STEPS;
+		int i = (int) pos;
+		double w = pos - i;
+		return SIGMOID_TABLE[i] + w * (SIGMOID_TABLE[i + 1] - SIGMOID_TABLE[i]);
+	}
+	
+	/**
+	 * complementary error function with relative error below 1.2e-7 (Chebyshev fit, Numerical Recipes erfcc)
+	 */
+	static double fastErfc(double x) {
+		double z = Math.abs(x);
+		double t = 1.0 / (1.0 + 0.5 * z);
+		double r = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+				+ t * (-0.82215223 + t * 0.17087277)))))))));
+		return x >= 0 ? r : 2.0 - r;
+	}
+	
+	/*
+	 * coefficients of the rational approximations of erfc by W. J. Cody (Math. Comp. 1969, netlib specfun calerf)
+	 */
+	private static final double[] ERF_A = {3.16112374387056560e00, 1.13864154151050156e02, 3.77485237685302021e02, 
+			3.20937758913846947e03, 1.85777706184603153e-1};
+	private static final double[] ERF_B = {2.36012909523441209e01, 2.44024637934444173e02, 1.28261652607737228e03, 
+			2.84423683343917062e03};
+	private static final double[] ERF_C = {5.64188496988670089e-1, 8.88314979438837594e00, 6.61191906371416295e01, 
+			2.98635138197400131e02, 8.81952221241769090e02, 1.71204761263407058e03, 2.05107837782607147e03, 
+			1.23033935479799725e03, 2.15311535474403846e-8};
+	private static final double[] ERF_D = {1.57449261107098347e01, 1.17693950891312499e02, 5.37181101862009858e02, 
+			1.62138957456669019e03, 3.29079923573345963e03, 4.36261909014324716e03, 3.43936767414372164e03, 
+			1.23033935480374942e03};
+	private static final double[] ERF_P = {3.05326634961232344e-1, 3.60344899949804439e-1, 1.25781726111229246e-1, 
+			1.60837851487422766e-2, 6.58749161529837803e-4, 1.63153871373020978e-2};
+	private static final double[] ERF_Q = {2.56852019228982242e00, 1.87295284992346725e00, 5.27905102951428412e-1, 
+			6.05183413124413191e-2, 2.33520497626869185e-3};
+	
+	private static final double INV_SQRT_PI = 5.6418958354775628695e-1;
+	
+	/**
+	 * complementary error function with relative error close to the machine precision (Cody). It does not allocate
+	 */
+	static double erfc(double x) {
+		double y = Math.abs(x);
+		double result;
+		if (y <= 0.46875) { // erfc = 1 - erf
+			double ysq = y > 1.11e-16 ? y * y : 0.0;
+			double xnum = ERF_A[4] * ysq, xden = ysq;
+			for (int i = 0; i < 3; i++) {
+				xnum = (xnum + ERF_A[i]) * ysq;
+				xden = (xden + ERF_B[i]) * ysq;
+			}
+			return 1.0 - x * (xnum + ERF_A[3]) / (xden + ERF_B[3]);
+		} else if (y <= 4.0) {
+			double xnum = ERF_C[8] * y, xden = y;
+			for (int i = 0; i < 7; i++) {
+				xnum = (xnum + ERF_C[i]) * y;
+				xden = (xden + ERF_D[i]) * y;
+			}
+			result = (xnum + ERF_C[7]) / (xden + ERF_D[7]);
+		} else if (y >= 26.543) { // erfc(y) is below the smallest double
+			result = 0.0;
+		} else {
+			double ysq = 1.0 / (y * y);
+			double xnum = ERF_P[5] * ysq, xden = ysq;
+			for (int i = 0; i < 4; i++) {
+				xnum = (xnum + ERF_P[i]) * ysq;
+				xden = (xden + ERF_Q[i]) * ysq;
+			}
+			result = ysq * (xnum + ERF_P[4]) / (xden + ERF_Q[4]);
+			result = (INV_SQRT_PI - result) / y;
+		}
+		if (result != 0.0)
+			result *= expNegSqr(y, 1.0);
+		return x < 0 ? 2.0 - result : result;
+	}
+	
+	/**
+	 * exp(-c * y^2) without the rounding error of y^2, which is large in the tail: y is split in a multiple of 1/16, 
+	 * whose square is exact, and the rest
+	 * @param y	value, not negative
+	 * @param c	1 or 0.5, so that the product is exact
+	 */
+	private static double expNegSqr(double y, double c) {
+		double ysq = Math.floor(y * 16.0) / 16.0;
+		double del = (y - ysq) * (y + ysq);
+		return Math.exp(-c * ysq * ysq) * Math.exp(-c * del);
+	}
+	
 	/**
 	 * return vector x - y
 	 * @param x
@@ -29,13 +182,20 @@ public class Function {
 	 * @return
 	 */
 	public static double[] minus(double[] x, double[] y) {
-		assert(x.length == y.length);
-		double[] result = new double[x.length];
-		
-		for (int i = 0; i < x.length; i++)
-			result[i] = x[i] - y[i];
-		
-		return result;
+		return minus(x, y, new double[x.length]);
+	}
+	
+	/**
+	 * out = x - y without allocation. out can be x or y
+	 * @param x
+	 * @param y
+	 * @param out	array which receives the result
+	 * @return		out
+	 */
+	public static double[] minus(double[] x, double[] y, double[] out) {
+		assert(x.length == y.length && x.length == out.length);
+		VectorKernels.sub(x, y, out);
+		return out;
 	}
 	
 	/**
@@ -45,12 +205,20 @@ public class Function {
 	 * @return
 	 */
 	public static double[] multiply(double t, double[] x) {
-		double[] result = new double[x.length];
-		
-		for (int i = 0; i < x.length; i++)
-			result[i] = t * x[i];
-		
-		return result;
+		return multiply(t, x, new double[x.length]);
+	}
+	
+	/**
+	 * out = t * x without allocation. out can be x
+	 * @param t		scalar value
+	 * @param x		vector in the format of array
+	 * @param out	array which receives the result
+	 * @return		out
+	 */
+	public static double[] multiply(double t, double[] x, double[] out) {
+		assert(x.length == out.length);
+		VectorKernels.scale(t, x, out);
+		return out;
 	}
 
 	/**
@@ -75,7 +243,17 @@ public class Function {
 	 * @return differentitaion
 	 */
 	public static double diffLogCDF(double x) {
-		return standardGau.density(x) / standardGau.cumulativeProbability(x);
+		return diffLogCDF(x, false);
+	}
+	
+	/**
+	 * 
+	 * @param x
+	 * @param fast	true if approximations are used
+	 * @return		differentiation of log cdf at x
+	 */
+	public static double diffLogCDF(double x, boolean fast) {
+		return normal(x, fast) / cdf(x, fast);
 	}
 
 	/**
@@ -86,7 +264,19 @@ public class Function {
 	 * @return
 	 */
 	public static double cdf(double x) {
-		return standardGau.cumulativeProbability(x);
+		return cdf(x, false);
+	}
+	
+	/**
+	 * 
+	 * @param x
+	 * @param fast	true if the approximation of erfc is used
+	 * @return		cumulative density function at x
+	 */
+	public static double cdf(double x, boolean fast) {
+		if (fast)
+			return 0.5 * fastErfc(-x / Math.sqrt(2.0));
+		return 0.5 * erfc(-x / Math.sqrt(2.0));
 	}
 	
 	/**
@@ -96,15 +286,8 @@ public class Function {
 	 * @return
 	 */
 	public static double innerProduct(double[] v1, double[] v2) {		
-		int length = v1.length;
 		assert (v1.length == v2.length);
-		
-//		double result = IntStream.range(0, length).mapToDouble(i -> v1[i] * v2[i]).sum(); // it is slower than using for :(
-		double result = 0.0;
-		for (int i = 0; i < length; i++)
-			result += v1[i] * v2[i];
-		
-		return result;
+		return VectorKernels.dot(v1, 0, v2, 0, v1.length);
 	}
 	
 	/**
@@ -122,6 +305,18 @@ public class Function {
 	 * @return
 	 */
 	public static double normal(double x) {
-		return standardGau.density(x);
+		return normal(x, false);
+	}
+	
+	/**
+	 * 
+	 * @param x
+	 * @param fast	true if the closed form is used
+	 * @return		density of the standard Gaussian distribution at x
+	 */
+	public static double normal(double x, boolean fast) {
+		if (fast)
+			return INV_SQRT_2PI * Math.exp(-0.5 * x * x);
+		return INV_SQRT_2PI * expNegSqr(Math.abs(x), 0.5);
 	}
 }
@@ -0,0 +1,66 @@
+package utils;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.special.Erf;
+
+/**
+ * check the accuracy of the fast and exact modes of Function against commons-math and Math.exp.
+ * The cdf is compared with Erf.erfc because NormalDistribution.cumulativeProbability loses all digits below -8 (it is 0 there).
+ * It prints the maximum error of each function and fails if one of them is larger than the bound documented in Function
+ * @author tndoan
+ *
+ */
+public class FunctionAccuracy {
+
+	private static NormalDistribution standardGau = new NormalDistribution();
+
+	/**
+	 *
+	 * @param name		name of function
+	 * @param error		maximum error found
+	 * @param bound		documented bound
+	 * @return			true if error is below bound
+	 */
+	private static boolean report(String name, double error, double bound) {
+		boolean isOk = error < bound;
+		System.out.println(name + ": maximum error " + error + " (bound " + bound + ")" + (isOk ? "" : " FAILED"));
+		return isOk;
+	}
+
+	/**
+	 * relative error. Values smaller than TINY are only compared in absolute error because they lose precision in both functions
+	 */
+	private static double relativeError(double approx, double exact) {
+		if (Math.abs(exact) < TINY)
+			return Math.abs(approx - exact) < TINY ? 0.0 : Double.POSITIVE_INFINITY;
+		return Math.abs(approx - exact) / Math.abs(exact);
+	}
+
+	private static final double TINY = 1e-290;
+
+	public static void main(String[] args) {
+		double sigmoid = 0.0, diffSigmoid = 0.0, normal = 0.0, cdf = 0.0, diffLogCDF = 0.0, exactCdfError = 0.0;
+		for (double x = -40.0; x <= 40.0; x += 1.0 / 1024 + 1e-7) { // the offset avoids hitting only the points of the table
+			double e = Math.exp(-x);
+			sigmoid = Math.max(sigmoid, Math.abs(Function.sigmoidFunction(x, true) - 1.0 / (1.0 + e)));
+			diffSigmoid = Math.max(diffSigmoid, Math.abs(Function.diffSigmoid(x, true) - e / ((1.0 + e) * (1.0 + e))));
+			normal = Math.max(normal, relativeError(Function.normal(x, true), standardGau.density(x)));
+			if (x >= -37.0) { // the cdf is subnormal below it
+				double exactCdf = 0.5 * Erf.erfc(-x / Math.sqrt(2.0));
+				cdf = Math.max(cdf, relativeError(Function.cdf(x, true), exactCdf));
+				exactCdfError = Math.max(exactCdfError, relativeError(Function.cdf(x), exactCdf));
+				diffLogCDF = Math.max(diffLogCDF, relativeError(Function.diffLogCDF(x, true), standardGau.density(x) / exactCdf));
+			}
+		}
+
+		boolean isOk = report("sigmoidFunction (absolute)", sigmoid, 2e-7);
+		isOk &= report("diffSigmoid (absolute)", diffSigmoid, 2e-7);
+		isOk &= report("normal (relative)", normal, 1e-13);
+		isOk &= report("cdf (relative)", cdf, 2e-7);
+		isOk &= report("diffLogCDF (relative)", diffLogCDF, 3e-7);
+		// Erf.erfc itself is only accurate to about 2e-13 in the tail
+		isOk &= report("exact cdf (relative)", exactCdfError, 1e-12);
+		if (!isOk)
+			System.exit(1);
+	}
+}
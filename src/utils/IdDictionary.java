@@ -0,0 +1,236 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * map the external string ids of users or venues to dense integer indices 0, 1, 2, ...
+ * Ids are interned in the order of their first appearance so the same input files always give the same indices.
+ * 
+ * Ids are only kept as UTF-8 bytes in one array, found by an open addressing table. They can be looked up
+ * from the bytes of a memory mapped file without making a String. getId makes a new String each time it is called.
+ * @author tndoan
+ *
+ */
+public class IdDictionary {
+
+	/**
+	 * UTF-8 bytes of all ids, one after another in the order of their indices
+	 */
+	private byte[] data;
+	
+	/**
+	 * id i is data[offsets[i] .. offsets[i + 1] - 1]
+	 */
+	private int[] offsets;
+	
+	/**
+	 * number of ids
+	 */
+	private int size;
+	
+	/**
+	 * open addressing table over ids. Each slot is index + 1, 0 if the slot is empty
+	 */
+	private int[] table;
+
+	public IdDictionary() {
+		data = new byte[4096];
+		offsets = new int[1025];
+		size = 0;
+		table = new int[1024];
+	}
+	
+	private IdDictionary(byte[] data, int[] offsets, int size, int[] table) {
+		this.data = data;
+		this.offsets = offsets;
+		this.size = size;
+		this.table = table;
+	}
+
+	/**
+	 * get the index of id. If id has not been seen before, a new index is assigned to it
+	 * @param id	external id
+	 * @return		dense index of id
+	 */
+	public int intern(String id) {
+		byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer b = ByteBuffer.wrap(bytes);
+		return intern(b, 0, bytes.length, MappedTextFile.hash(bytes));
+	}
+	
+	/**
+	 * same as intern(String) but the id is given as bytes of a chunk of file
+	 * @param b		chunk
+	 * @param off	start of id
+	 * @param len	length of id
+	 * @param hash	MappedTextFile.hash(b, off, len)
+	 * @return		dense index of id
+	 */
+	public int intern(ByteBuffer b, int off, int len, int hash) {
+		int i = indexOf(b, off, len, hash);
+		if (i >= 0)
+			return i;
+		return add(b, off, len, hash);
+	}
+
+	/**
+	 *
+	 * @param id	external id
+	 * @return		dense index of id, -1 if id is not in the dictionary
+	 */
+	public int indexOf(String id) {
+		byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+		return indexOf(ByteBuffer.wrap(bytes), 0, bytes.length, MappedTextFile.hash(bytes));
+	}
+	
+	/**
+	 * same as indexOf(String) but the id is given as bytes of a chunk of file. 
+	 * It can be called by many threads if no thread is interning
+	 * @param b		chunk
+	 * @param off	start of id
+	 * @param len	length of id
+	 * @param hash	MappedTextFile.hash(b, off, len)
+	 * @return		dense index of id, -1 if id is not in the dictionary
+	 */
+	public int indexOf(ByteBuffer b, int off, int len, int hash) {
+		int mask = table.length - 1;
+		for (int s = hash & mask; table[s] != 0; s = (s + 1) & mask) {
+			int i = table[s] - 1;
+			if (equals(i, b, off, len))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @param i	dense index
+	 * @return	external id of index i
+	 */
+	public String getId(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("index " + i + " of " + size + " ids");
+		return new String(data, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 *
+	 * @return	number of ids in the dictionary
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * add a new id to the dictionary
+	 * @param b		chunk
+	 * @param off	start of id
+	 * @param len	length of id
+	 * @param hash	MappedTextFile.hash(b, off, len)
+	 * @return		new index of id
+	 */
+	private int add(ByteBuffer b, int off, int len, int hash) {
+		int result = size;
+		int start = offsets[size];
+		if (start + len > data.length)
+			data = Arrays.copyOf(data, Math.max(start + len, 2 * data.length));
+		if (size + 2 > offsets.length)
+			offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+		for (int i = 0; i < len; i++)
+			data[start + i] = b.get(off + i);
+		offsets[++size] = start + len;
+		
+		if (2 * size > table.length) // keep the load factor under 0.5
+			rehash();
+		else
+			insert(result, hash);
+		return result;
+	}
+	
+	private void insert(int i, int hash) {
+		int mask = table.length - 1;
+		int s = hash & mask;
+		while (table[s] != 0)
+			s = (s + 1) & mask;
+		table[s] = i + 1;
+	}
+	
+	private void rehash() {
+		table = new int[2 * table.length];
+		for (int i = 0; i < size; i++)
+			insert(i, hash(i));
+	}
+	
+	/**
+	 * 
+	 * @param i	dense index
+	 * @return	MappedTextFile.hash of the bytes of id i
+	 */
+	private int hash(int i) {
+		int h = 0x811c9dc5;
+		for (int p = offsets[i]; p < offsets[i + 1]; p++)
+			h = (h ^ (data[p] & 0xff)) * 0x01000193;
+		return h;
+	}
+	
+	private boolean equals(int i, ByteBuffer b, int off, int len) {
+		int start = offsets[i];
+		if (offsets[i + 1] - start != len)
+			return false;
+		for (int j = 0; j < len; j++) {
+			if (data[start + j] != b.get(off + j))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * 
+	 * @return	hash of all ids in the order of their indices. Two dictionaries with the same ids and indices have the same fingerprint
+	 */
+	public long fingerprint() {
+		long result = size;
+		for (int i = 0; i < size; i++)
+			result = result * 0x100000001b3L + hash(i);
+		return result;
+	}
+	
+	/**
+	 * write all ids in the order of their indices to a binary file, followed by the slots of the hash table
+	 * @param out	writer of the file
+	 * @throws IOException
+	 */
+	public void write(BinaryWriter out) throws IOException {
+		out.putInt(size);
+		out.putInts(offsets, 0, size + 1);
+		out.putBytes(data, 0, offsets[size]);
+		out.align(8);
+		out.putInt(table.length);
+		out.putInts(table);
+		out.align(8);
+	}
+	
+	/**
+	 * read the dictionary written by write. Each id gets the same index as before.
+	 * Arrays are copied in bulk and the hash table is used as it was written, so no id is hashed or interned again
+	 * @param in	reader of the file
+	 * @return		dictionary
+	 * @throws IOException	if the hash table does not fit the ids
+	 */
+	public static IdDictionary read(BinaryReader in) throws IOException {
+		int size = in.getInt();
+		int[] offsets = in.getInts(size + 1);
+		byte[] data = in.getBytes(offsets[size]);
+		in.align(8);
+		int tableLength = in.getInt();
+		if (Integer.bitCount(tableLength) != 1 || 2 * size > tableLength)
+			throw new IOException("invalid hash table of ids: " + tableLength + " slots for " + size + " ids");
+		int[] table = in.getInts(tableLength);
+		in.align(8);
+		
+		return new IdDictionary(data, offsets, size, table);
+	}
+}
@@ -0,0 +1,261 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * memory map a text file in line-aligned chunks and tokenize its bytes without making String objects.
+ * Chunks can be parsed in parallel because no line crosses the border of 2 chunks.
+ *
+ * Tokens are separated by spaces or tabs, lines by '\n' ('\r' is ignored).
+ * @author tndoan
+ *
+ */
+public class MappedTextFile {
+
+	/**
+	 * smallest size of a chunk. Small files are not split
+	 */
+	private static final long MIN_CHUNK = 1 << 20;
+
+	/**
+	 * largest size of a chunk. It is smaller than the limit of one MappedByteBuffer
+	 */
+	private static final long MAX_CHUNK = 1 << 28;
+
+	/**
+	 * map the file into chunks. Each chunk ends just after a '\n' or at the end of file
+	 * @param filename		name of file
+	 * @return				list of chunks in the order of the file
+	 * @throws IOException
+	 */
+	public static ArrayList<MappedByteBuffer> map(String filename) throws IOException {
+		ArrayList<MappedByteBuffer> result = new ArrayList<>();
+		try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size = ch.size();
+			int parallelism = ForkJoinPool.getCommonPoolParallelism();
+			long chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (4L * parallelism) + 1));
+			ByteBuffer probe = ByteBuffer.allocate(4096);
+
+			long start = 0;
+			while (start < size) {
+				long end = nextLineStart(ch, Math.min(size, start + chunk), size, probe);
+				result.add(ch.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+				start = end;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param ch	channel of file
+	 * @param pos	position in the file
+	 * @param size	size of file
+	 * @param probe	buffer used to read the file
+	 * @return		smallest position >= pos which is the start of a line
+	 * @throws IOException
+	 */
+	private static long nextLineStart(FileChannel ch, long pos, long size, ByteBuffer probe) throws IOException {
+		if (pos >= size)
+			return size;
+
+		long p = pos - 1; // pos is the start of a line if the previous byte is '\n'
+		while (p < size) {
+			probe.clear();
+			int n = ch.read(probe, p);
+			if (n <= 0)
+				break;
+			for (int i = 0; i < n; i++) {
+				if (probe.get(i) == '\n')
+					return p + i + 1;
+			}
+			p += n;
+		}
+		return size;
+	}
+
+	/**
+	 *
+	 * @param b		chunk
+	 * @param pos	position in chunk
+	 * @return		true if byte at pos separates 2 tokens
+	 */
+	public static boolean isSpace(ByteBuffer b, int pos) {
+		byte c = b.get(pos);
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	/**
+	 *
+	 * @param b		chunk
+	 * @param pos	start of a line
+	 * @return		position of '\n' which ends the line, or the limit of chunk
+	 */
+	public static int lineEnd(ByteBuffer b, int pos) {
+		int limit = b.limit();
+		while (pos < limit && b.get(pos) != '\n')
+			pos++;
+		return pos;
+	}
+
+	/**
+	 *
+	 * @param b		chunk
+	 * @param pos	position in a line
+	 * @param end	end of the line
+	 * @return		first position >= pos which is not a space, or end
+	 */
+	public static int skipSpaces(ByteBuffer b, int pos, int end) {
+		while (pos < end && isSpace(b, pos))
+			pos++;
+		return pos;
+	}
+
+	/**
+	 *
+	 * @param b		chunk
+	 * @param pos	start of a token
+	 * @param end	end of the line
+	 * @param delim	extra delimiter of the token (for example ':' of <venueId>:<numCks>), 0 if there is not
+	 * @return		position after the last byte of token
+	 */
+	public static int tokenEnd(ByteBuffer b, int pos, int end, byte delim) {
+		while (pos < end && !isSpace(b, pos) && (delim == 0 || b.get(pos) != delim))
+			pos++;
+		return pos;
+	}
+
+	/**
+	 * hash of bytes of a token. It is the same as hash(byte[]) of the same bytes
+	 * @param b		chunk
+	 * @param off	start of token
+	 * @param len	length of token
+	 * @return		hash value
+	 */
+	public static int hash(ByteBuffer b, int off, int len) {
+		int h = 0x811c9dc5;
+		for (int i = off; i < off + len; i++)
+			h = (h ^ (b.get(i) & 0xff)) * 0x01000193;
+		return h;
+	}
+
+	/**
+	 *
+	 * @param bytes	bytes of a token
+	 * @return		hash value. It is the same as hash(ByteBuffer, int, int) of the same bytes
+	 */
+	public static int hash(byte[] bytes) {
+		int h = 0x811c9dc5;
+		for (byte c : bytes)
+			h = (h ^ (c & 0xff)) * 0x01000193;
+		return h;
+	}
+
+	/**
+	 * parse a decimal number like 12, -3.25 or 1.5e3.
+	 * Numbers with more than 15 significant digits are given to Double.parseDouble so the result is always the same as it
+	 * @param b		chunk
+	 * @param off	start of token
+	 * @param len	length of token
+	 * @return		value of the number
+	 */
+	public static double parseDouble(ByteBuffer b, int off, int len) {
+		int i = off, end = off + len;
+		boolean negative = false;
+		if (i < end && (b.get(i) == '-' || b.get(i) == '+'))
+			negative = b.get(i++) == '-';
+
+		long mantissa = 0;
+		int digits = 0, scale = 0;
+		boolean isFraction = false;
+		for (; i < end; i++) {
+			byte c = b.get(i);
+			if (c >= '0' && c <= '9') {
+				if (mantissa != 0 || c != '0')
+					digits++;
+				mantissa = mantissa * 10 + (c - '0');
+				if (isFraction)
+					scale++;
+			} else if (c == '.' && !isFraction) {
+				isFraction = true;
+			} else
+				break;
+		}
+
+		// exponent, exotic forms or too many digits: values would not be correctly rounded
+		if (i != end || digits > 15 || scale > 22)
+			return Double.parseDouble(toString(b, off, len));
+
+		double result = scale == 0 ? (double) mantissa : (double) mantissa / POW10[scale];
+		return negative ? -result : result;
+	}
+
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1.0;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10.0; // exact up to 1e22
+	}
+
+	/**
+	 *
+	 * @param b		chunk
+	 * @param off	start of token
+	 * @param len	length of token
+	 * @return		the token as a string
+	 */
+	public static String toString(ByteBuffer b, int off, int len) {
+		return new String(toBytes(b, off, len), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 *
+	 * @param b		chunk
+	 * @param off	start of token
+	 * @param len	length of token
+	 * @return		copy of bytes of the token
+	 */
+	public static byte[] toBytes(ByteBuffer b, int off, int len) {
+		byte[] result = new byte[len];
+		for (int i = 0; i < len; i++)
+			result[i] = b.get(off + i);
+		return result;
+	}
+
+	/**
+	 * growable array of int. Used to collect tokens of one chunk
+	 */
+	static class IntList {
+		int[] data = new int[256];
+		int size = 0;
+
+		void add(int x) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, 2 * size);
+			data[size++] = x;
+		}
+	}
+
+	/**
+	 * growable array of double. Used to collect numbers of one chunk
+	 */
+	static class DoubleList {
+		double[] data = new double[256];
+		int size = 0;
+
+		void add(double x) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, 2 * size);
+			data[size++] = x;
+		}
+	}
+}
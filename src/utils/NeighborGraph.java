@@ -0,0 +1,327 @@
+package utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import object.CheckinMatrix;
+import object.PointObject;
+
+/**
+ * build the neighbor graph of venues from their locations.
+ * Points are put on the unit sphere and indexed by a KD-tree. On the sphere the chord between 2 points
+ * grows with their great-circle (haversine) distance, so the nearest points by chord are the nearest points by Distance.calculateDistance.
+ *
+ * Neighbors of each venue are searched in parallel. They are sorted from the nearest one, ties by index
+ * @author tndoan
+ *
+ */
+public class NeighborGraph {
+
+	/**
+	 * x, y, z of each point on the unit sphere
+	 */
+	private double[] xyz;
+
+	/**
+	 * tree over indices of points with known location. The node of order[lo .. hi - 1] is order[(lo + hi) / 2],
+	 * its left subtree is order[lo .. mid - 1] and its right subtree is order[mid + 1 .. hi - 1]
+	 */
+	private int[] order;
+
+	/**
+	 * axis used to split the node at each position of order
+	 */
+	private byte[] axis;
+
+	private NeighborGraph(PointObject[] points) {
+		xyz = new double[3 * points.length];
+		int size = 0;
+		for (PointObject p : points) {
+			if (p != null)
+				size++;
+		}
+
+		order = new int[size];
+		axis = new byte[size];
+		size = 0;
+		for (int i = 0; i < points.length; i++) {
+			if (points[i] == null)
+				continue;
+			double cosLat = points[i].getCosLat();
+			double lng = points[i].getLngRad();
+			xyz[3 * i] = cosLat * Math.cos(lng);
+			xyz[3 * i + 1] = cosLat * Math.sin(lng);
+			xyz[3 * i + 2] = Math.sin(points[i].getLatRad());
+			order[size++] = i;
+		}
+		build(0, size);
+	}
+
+	/**
+	 * find at most n nearest venues of each venue
+	 * @param points	location of each venue, null if it is unknown
+	 * @param n			number of neighbors
+	 * @return			indices of neighbors of each venue. Venues without location have no neighbor
+	 */
+	public static int[][] knn(PointObject[] points, int n) {
+		return build(points, n, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * find all venues in a radius of each venue
+	 * @param points	location of each venue, null if it is unknown
+	 * @param radius	radius in meter
+	 * @return			indices of neighbors of each venue. Venues without location have no neighbor
+	 */
+	public static int[][] withinRadius(PointObject[] points, double radius) {
+		return build(points, Integer.MAX_VALUE, radius);
+	}
+
+	/**
+	 * find at most n nearest venues of each venue which are not further than radius
+	 * @param points	location of each venue, null if it is unknown
+	 * @param n			maximum number of neighbors
+	 * @param radius	radius in meter, infinity if there is no limit
+	 * @return			indices of neighbors of each venue. Venues without location have no neighbor
+	 */
+	public static int[][] build(PointObject[] points, int n, double radius) {
+		NeighborGraph tree = new NeighborGraph(points);
+		double maxChord = 2.0;
+		double angle = radius / (Distance.AVERAGE_RADIUS_OF_EARTH * 1000.0);
+		if (angle < Math.PI) // chord of the radius, every point is in the radius otherwise
+			maxChord = 2.0 * Math.sin(angle / 2.0);
+		double maxSqChord = maxChord * maxChord;
+
+		int[][] result = new int[points.length][];
+		IntStream.range(0, points.length).parallel().forEach(i -> {
+			if (points[i] == null || n <= 0) {
+				result[i] = new int[0];
+				return;
+			}
+			Candidates c = new Candidates(n, maxSqChord);
+			tree.search(0, tree.order.length, i, c);
+			result[i] = c.sorted();
+		});
+		return result;
+	}
+
+	/**
+	 * make the subtree of order[lo .. hi - 1]
+	 */
+	private void build(int lo, int hi) {
+		if (hi - lo <= 1)
+			return;
+
+		// split on the axis with the largest spread
+		double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for (int i = lo; i < hi; i++) {
+			for (int a = 0; a < 3; a++) {
+				double x = xyz[3 * order[i] + a];
+				min[a] = Math.min(min[a], x);
+				max[a] = Math.max(max[a], x);
+			}
+		}
+		int a = 0;
+		for (int b = 1; b < 3; b++) {
+			if (max[b] - min[b] > max[a] - min[a])
+				a = b;
+		}
+
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi, mid, a);
+		axis[mid] = (byte) a;
+		build(lo, mid);
+		build(mid + 1, hi);
+	}
+
+	/**
+	 * reorder order[lo .. hi - 1] so that order[mid] is the point whose coordinate a is the median,
+	 * points before it are not greater and points after it are not smaller
+	 */
+	private void select(int lo, int hi, int mid, int a) {
+		hi--;
+		while (lo < hi) {
+			double pivot = xyz[3 * order[(lo + hi) >>> 1] + a];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (xyz[3 * order[i] + a] < pivot)
+					i++;
+				while (xyz[3 * order[j] + a] > pivot)
+					j--;
+				if (i <= j) {
+					int t = order[i];
+					order[i++] = order[j];
+					order[j--] = t;
+				}
+			}
+			if (mid <= j)
+				hi = j;
+			else if (mid >= i)
+				lo = i;
+			else
+				break;
+		}
+	}
+
+	/**
+	 * search the subtree of order[lo .. hi - 1] for neighbors of point q
+	 */
+	private void search(int lo, int hi, int q, Candidates c) {
+		if (lo >= hi)
+			return;
+		int mid = (lo + hi) >>> 1;
+		int p = order[mid];
+		if (p != q) {
+			double dx = xyz[3 * p] - xyz[3 * q];
+			double dy = xyz[3 * p + 1] - xyz[3 * q + 1];
+			double dz = xyz[3 * p + 2] - xyz[3 * q + 2];
+			c.offer(dx * dx + dy * dy + dz * dz, p);
+		}
+		if (hi - lo == 1)
+			return;
+
+		int a = axis[mid];
+		double diff = xyz[3 * q + a] - xyz[3 * p + a];
+		if (diff < 0) {
+			search(lo, mid, q, c);
+			if (diff * diff <= c.worst())
+				search(mid + 1, hi, q, c);
+		} else {
+			search(mid + 1, hi, q, c);
+			if (diff * diff <= c.worst())
+				search(lo, mid, q, c);
+		}
+	}
+
+	/**
+	 * the best points found so far in a max heap of (square of chord, index)
+	 */
+	private static class Candidates {
+		private final int limit;
+		private final double maxSqChord;
+		private double[] dist = new double[16];
+		private int[] index = new int[16];
+		private int size = 0;
+
+		Candidates(int limit, double maxSqChord) {
+			this.limit = limit;
+			this.maxSqChord = maxSqChord;
+		}
+
+		/**
+		 *
+		 * @return	square of chord of the worst point which can still be accepted
+		 */
+		double worst() {
+			return size < limit ? maxSqChord : dist[0];
+		}
+
+		void offer(double d, int i) {
+			if (d > maxSqChord)
+				return;
+			if (size < limit) {
+				if (size == dist.length) {
+					dist = Arrays.copyOf(dist, 2 * size);
+					index = Arrays.copyOf(index, 2 * size);
+				}
+				int s = size++;
+				while (s > 0) { // sift up
+					int parent = (s - 1) / 2;
+					if (!isWorse(d, i, dist[parent], index[parent]))
+						break;
+					dist[s] = dist[parent];
+					index[s] = index[parent];
+					s = parent;
+				}
+				dist[s] = d;
+				index[s] = i;
+			} else if (isWorse(dist[0], index[0], d, i)) {
+				siftDown(d, i, size);
+			}
+		}
+
+		/**
+		 * put (d, i) at the root and sift it down in dist[0 .. n - 1]
+		 */
+		private void siftDown(double d, int i, int n) {
+			int s = 0;
+			while (2 * s + 1 < n) {
+				int child = 2 * s + 1;
+				if (child + 1 < n && isWorse(dist[child + 1], index[child + 1], dist[child], index[child]))
+					child++;
+				if (!isWorse(dist[child], index[child], d, i))
+					break;
+				dist[s] = dist[child];
+				index[s] = index[child];
+				s = child;
+			}
+			dist[s] = d;
+			index[s] = i;
+		}
+
+		private static boolean isWorse(double d1, int i1, double d2, int i2) {
+			return d1 > d2 || (d1 == d2 && i1 > i2);
+		}
+
+		/**
+		 *
+		 * @return	indices of all candidates from the nearest one. The heap is emptied
+		 */
+		int[] sorted() {
+			int[] result = new int[size];
+			for (int n = size - 1; n >= 0; n--) {
+				result[n] = index[0];
+				siftDown(dist[n], index[n], n);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * write neighbors in the format of ReadFile.readNeighbors: one line per venue, the venue id then ids of its neighbors
+	 * @param filename	name of output file
+	 * @param neighbors	indices of neighbors of each venue
+	 * @param dict		dictionary of venue ids
+	 * @throws IOException
+	 */
+	public static void write(String filename, int[][] neighbors, IdDictionary dict) throws IOException {
+		ArrayList<String> lines = new ArrayList<>();
+		for (int v = 0; v < neighbors.length; v++) {
+			StringBuilder sb = new StringBuilder(dict.getId(v));
+			for (int n : neighbors[v])
+				sb.append(" ").append(dict.getId(n));
+			lines.add(sb.toString());
+		}
+		Utils.writeFile(lines, filename);
+	}
+
+	/**
+	 * make the neighbor file of venues which have check-ins.
+	 * Arguments: vFile cksFile n radius outputFile. Use - for n or radius if there is no limit
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 5) {
+			System.err.println("usage: NeighborGraph <vFile> <cksFile> <n|-> <radius in meter|-> <outputFile>");
+			return;
+		}
+		int n = args[2].equals("-") ? Integer.MAX_VALUE : Integer.parseInt(args[2]);
+		double radius = args[3].equals("-") ? Double.POSITIVE_INFINITY : Double.parseDouble(args[3]);
+
+		long start = System.currentTimeMillis();
+		IdDictionary venueDict = new IdDictionary();
+		CheckinMatrix cks = ReadFile.readNumCksFile(args[1], new IdDictionary(), venueDict);
+		ArrayList<PointObject> locations = ReadFile.readLocation(args[0], venueDict, false);
+		PointObject[] points = new PointObject[cks.getNumVenues()];
+		for (int v = 0; v < locations.size(); v++)
+			points[v] = locations.get(v);
+
+		int[][] neighbors = build(points, n, radius);
+		write(args[4], neighbors, venueDict);
+		System.out.println("built neighbors of " + points.length + " venues in " + (System.currentTimeMillis() - start) + " ms");
+	}
+}
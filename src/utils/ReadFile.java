@@ -1,15 +1,24 @@
 package utils;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import object.CheckinMatrix;
+import object.PointObject;
+import utils.MappedTextFile.DoubleList;
+import utils.MappedTextFile.IntList;
 
 /**
  * It is used to read the information of neighbors of venues;
  * the location of venues/users
  * 
+ * All external ids are interned into an IdDictionary while reading, so the result is indexed by dense integers.
+ * Files are memory mapped and their chunks are tokenized in parallel into primitive arrays (see MappedTextFile). 
+ * Ids are interned after that in the order of the file so the indices do not depend on the number of threads.
+ * 
  * It is cloned from HomePredictModel
  * 
  * @author tndoan
@@ -17,38 +26,108 @@ import java.util.HashMap;
  */
 public class ReadFile {
 	
+	/**
+	 * tokens of one chunk of check-in file
+	 */
+	private static class CksChunk {
+		/**
+		 * for each line: offset, length, hash of user id and number of pairs
+		 */
+		IntList lines = new IntList();
+		
+		/**
+		 * for each pair: offset, length, hash of venue id
+		 */
+		IntList pairs = new IntList();
+		
+		/**
+		 * number of check-ins of each pair
+		 */
+		DoubleList cks = new DoubleList();
+	}
+	
 	/**
 	 * each line has the format
 	 * <userId> <venueId>:<numCks> <venueId>:<numCks> <venueId>:<numCks> <venueId>:<numCks> ....
-	 * @param filename the name of file
-	 * @return
+	 * @param filename	the name of file
+	 * @param users		dictionary of user ids. Every user in the file is interned into it
+	 * @param venues	dictionary of venue ids. Every venue in the file is interned into it
+	 * @return			check-in matrix whose size is the size of both dictionaries after reading
 	 */
-	public static HashMap<String, HashMap<String, Double>> readNumCksFile(String filename){
-		HashMap<String, HashMap<String, Double>> result = null;
+	public static CheckinMatrix readNumCksFile(String filename, IdDictionary users, IdDictionary venues){
+		int size = 0;
+		int[] uIdx = new int[0];
+		int[] vIdx = new int[0];
+		double[] cks = new double[0];
 		
-		try (BufferedReader br = new BufferedReader(new FileReader(filename)))
-		{
-			result = new HashMap<>();
-			String sCurrentLine;
-
-			while ((sCurrentLine = br.readLine()) != null) {
-				String[] comp = sCurrentLine.split(" ");
-				String userId = comp[0];
-				
-				HashMap<String, Double> map = new HashMap<>();
-				for (int i = 1; i < comp.length; i++){
-					String[] c = comp[i].split(":");
-					String venueId = c[0];
-					double numCks = Double.parseDouble(c[1]);
-					map.put(venueId, numCks);
+		try {
+			ArrayList<MappedByteBuffer> chunks = MappedTextFile.map(filename);
+			CksChunk[] parsed = new CksChunk[chunks.size()];
+			IntStream.range(0, chunks.size()).parallel().forEach(c -> parsed[c] = tokenizeCks(chunks.get(c)));
+			
+			int total = 0;
+			for (CksChunk p : parsed)
+				total += p.cks.size;
+			uIdx = new int[total];
+			vIdx = new int[total];
+			cks = new double[total];
+			
+			// intern in the order of file
+			for (int c = 0; c < parsed.length; c++) {
+				MappedByteBuffer b = chunks.get(c);
+				int[] lines = parsed[c].lines.data;
+				int[] pairs = parsed[c].pairs.data;
+				double[] numCks = parsed[c].cks.data;
+				int pair = 0;
+				for (int l = 0; l < parsed[c].lines.size; l += 4) {
+					int userIdx = users.intern(b, lines[l], lines[l + 1], lines[l + 2]);
+					for (int i = 0; i < lines[l + 3]; i++, pair++) {
+						uIdx[size] = userIdx;
+						vIdx[size] = venues.intern(b, pairs[3 * pair], pairs[3 * pair + 1], pairs[3 * pair + 2]);
+						cks[size] = numCks[pair];
+						size++;
+					}
 				}
-				
-				result.put(userId, map);
 			}
 
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		
+		return CheckinMatrix.fromTriplets(uIdx, vIdx, cks, size, users.size(), venues.size());
+	}
+	
+	private static CksChunk tokenizeCks(MappedByteBuffer b) {
+		CksChunk result = new CksChunk();
+		int pos = 0;
+		while (pos < b.limit()) {
+			int end = MappedTextFile.lineEnd(b, pos);
+			int s = MappedTextFile.skipSpaces(b, pos, end);
+			if (s < end) {
+				int e = MappedTextFile.tokenEnd(b, s, end, (byte) 0);
+				result.lines.add(s);
+				result.lines.add(e - s);
+				result.lines.add(MappedTextFile.hash(b, s, e - s));
+				
+				int numPairs = 0;
+				s = MappedTextFile.skipSpaces(b, e, end);
+				while (s < end) {
+					e = MappedTextFile.tokenEnd(b, s, end, (byte) ':'); // venue id
+					result.pairs.add(s);
+					result.pairs.add(e - s);
+					result.pairs.add(MappedTextFile.hash(b, s, e - s));
+					
+					s = e + 1; // number of check-ins
+					e = MappedTextFile.tokenEnd(b, s, end, (byte) 0);
+					result.cks.add(MappedTextFile.parseDouble(b, s, e - s));
+					numPairs++;
+					
+					s = MappedTextFile.skipSpaces(b, e, end);
+				}
+				result.lines.add(numPairs);
+			}
+			pos = end + 1;
+		}
 		return result;
 	}
 	
@@ -56,26 +135,29 @@ public class ReadFile {
 	 * each line has the format
 	 * <venueId> <venueId_1> <venueId_2> <venueId_3> ...
 	 * <venueId_1> <venueId_2> <venueId_3> ... are neighbors of <venueId>
-	 * @param filename the name of file
-	 * @return
+	 * Ids which are not in the dictionary are ignored
+	 * @param filename	the name of file
+	 * @param dict		dictionary of ids
+	 * @return			result[i] is the array of indices of neighbors of index i. It is null if i has no line in the file
 	 */
-	public static HashMap<String, ArrayList<String>> readNeighbors(String filename){
-		HashMap<String, ArrayList<String>> result = null;
+	public static int[][] readNeighbors(String filename, IdDictionary dict){
+		int[][] result = new int[dict.size()][];
 		
-		try (BufferedReader br = new BufferedReader(new FileReader(filename)))
-		{
-			result = new HashMap<>();
-			String sCurrentLine;
-
-			while ((sCurrentLine = br.readLine()) != null) {
-				String[] comp = sCurrentLine.split(" ");
-				String vId = comp[0];
-				
-				ArrayList<String> list = new ArrayList<>();
-				for (int i = 1; i < comp.length; i++)
-					list.add(comp[i]);
-				
-				result.put(vId, list);
+		try {
+			ArrayList<MappedByteBuffer> chunks = MappedTextFile.map(filename);
+			IntList[] parsed = new IntList[chunks.size()];
+			// the dictionary is not modified so chunks can look up ids in parallel
+			IntStream.range(0, chunks.size()).parallel().forEach(c -> parsed[c] = tokenizeNeighbors(chunks.get(c), dict));
+			
+			for (IntList p : parsed) {
+				int i = 0;
+				while (i < p.size) {
+					int idx = p.data[i];
+					int n = p.data[i + 1];
+					if (idx >= 0)
+						result[idx] = Arrays.copyOfRange(p.data, i + 2, i + 2 + n);
+					i += n + 2;
+				}
 			}
 
 		} catch (IOException e) {
@@ -85,15 +167,65 @@ public class ReadFile {
 		return result;
 	}
 	
+	/**
+	 * 
+	 * @param b		chunk
+	 * @param dict	dictionary of ids
+	 * @return		for each line: index of the first id, number of known ids after it and their indices
+	 */
+	private static IntList tokenizeNeighbors(MappedByteBuffer b, IdDictionary dict) {
+		IntList result = new IntList();
+		int pos = 0;
+		while (pos < b.limit()) {
+			int end = MappedTextFile.lineEnd(b, pos);
+			int s = MappedTextFile.skipSpaces(b, pos, end);
+			if (s < end) {
+				int e = MappedTextFile.tokenEnd(b, s, end, (byte) 0);
+				result.add(dict.indexOf(b, s, e - s, MappedTextFile.hash(b, s, e - s)));
+				int countPos = result.size;
+				result.add(0);
+				
+				s = MappedTextFile.skipSpaces(b, e, end);
+				while (s < end) {
+					e = MappedTextFile.tokenEnd(b, s, end, (byte) 0);
+					int n = dict.indexOf(b, s, e - s, MappedTextFile.hash(b, s, e - s));
+					if (n >= 0) {
+						result.add(n);
+						result.data[countPos]++;
+					}
+					s = MappedTextFile.skipSpaces(b, e, end);
+				}
+			}
+			pos = end + 1;
+		}
+		return result;
+	}
+	
 	/**
 	 * each line has the format
 	 * <userId> <userId_1> <userId_2> <userId_3> ...
 	 * <userId_1> <userId_2> <userId_3> ... are friends of <userId>
-	 * @param filename the name of file
-	 * @return
+	 * @param filename	the name of file
+	 * @param dict		dictionary of user ids
+	 * @return			result[i] is the array of indices of friends of user i
 	 */
-	public static HashMap<String, ArrayList<String>> readFriendship(String filename) {
-		return readNeighbors(filename); // they have the same format
+	public static int[][] readFriendship(String filename, IdDictionary dict) {
+		return readNeighbors(filename, dict); // they have the same format
+	}
+	
+	/**
+	 * tokens of one chunk of location file
+	 */
+	private static class LocationChunk {
+		/**
+		 * for each line: offset, length, hash of id
+		 */
+		IntList ids = new IntList();
+		
+		/**
+		 * for each line: latitude and longitude. Both are NaN if the location is unknown
+		 */
+		DoubleList latLng = new DoubleList();
 	}
 	
 	/**
@@ -102,22 +234,33 @@ public class ReadFile {
 	 * if we dont know the location of user or venue whose id is in this line. Or, the format is
 	 * <id> lat,lng
 	 * is the latitude and longitude of home location of user
-	 * @param filename
-	 * @return
+	 * @param filename	the name of file
+	 * @param dict		dictionary of ids
+	 * @param isIntern	if true, ids which are not in the dictionary are interned. Otherwise, they are ignored
+	 * @return			list whose i-th element is the location of index i. It is null if i has no line in the file
 	 */
-	public static HashMap<String, String> readLocation(String filename){
-		HashMap<String, String> result = null;
-		try (BufferedReader br = new BufferedReader(new FileReader(filename)))
-		{
-			result = new HashMap<>();
-			String sCurrentLine;
-
-			while ((sCurrentLine = br.readLine()) != null) {
-				String[] comp = sCurrentLine.split(" ");
-				String id = comp[0];
-				String info = comp[1];
-				
-				result.put(id, info);
+	public static ArrayList<PointObject> readLocation(String filename, IdDictionary dict, boolean isIntern){
+		ArrayList<PointObject> result = new ArrayList<>();
+		try {
+			ArrayList<MappedByteBuffer> chunks = MappedTextFile.map(filename);
+			LocationChunk[] parsed = new LocationChunk[chunks.size()];
+			IntStream.range(0, chunks.size()).parallel().forEach(c -> parsed[c] = tokenizeLocation(chunks.get(c)));
+			
+			for (int c = 0; c < parsed.length; c++) {
+				MappedByteBuffer b = chunks.get(c);
+				int[] ids = parsed[c].ids.data;
+				double[] latLng = parsed[c].latLng.data;
+				for (int l = 0; 3 * l < parsed[c].ids.size; l++) {
+					int off = ids[3 * l], len = ids[3 * l + 1], hash = ids[3 * l + 2];
+					int idx = isIntern ? dict.intern(b, off, len, hash) : dict.indexOf(b, off, len, hash);
+					if (idx < 0)
+						continue;
+					
+					while (result.size() <= idx)
+						result.add(null);
+					double lat = latLng[2 * l], lng = latLng[2 * l + 1];
+					result.set(idx, Double.isNaN(lat) ? new PointObject("?") : new PointObject(lat, lng));
+				}
 			}
 
 		} catch (IOException e) {
@@ -125,4 +268,33 @@ public class ReadFile {
 		} 
 		return result;
 	}
+	
+	private static LocationChunk tokenizeLocation(MappedByteBuffer b) {
+		LocationChunk result = new LocationChunk();
+		int pos = 0;
+		while (pos < b.limit()) {
+			int end = MappedTextFile.lineEnd(b, pos);
+			int s = MappedTextFile.skipSpaces(b, pos, end);
+			if (s < end) {
+				int e = MappedTextFile.tokenEnd(b, s, end, (byte) 0);
+				result.ids.add(s);
+				result.ids.add(e - s);
+				result.ids.add(MappedTextFile.hash(b, s, e - s));
+				
+				s = MappedTextFile.skipSpaces(b, e, end);
+				if (s < end && b.get(s) == '?') { // unknown location
+					result.latLng.add(Double.NaN);
+					result.latLng.add(Double.NaN);
+				} else {
+					e = MappedTextFile.tokenEnd(b, s, end, (byte) ',');
+					result.latLng.add(MappedTextFile.parseDouble(b, s, e - s));
+					s = e + 1;
+					e = MappedTextFile.tokenEnd(b, s, end, (byte) 0);
+					result.latLng.add(MappedTextFile.parseDouble(b, s, e - s));
+				}
+			}
+			pos = end + 1;
+		}
+		return result;
+	}
 }
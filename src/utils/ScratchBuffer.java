@@ -0,0 +1,26 @@
+package utils;
+
+/**
+ * one reusable array per thread, so hot loops do not allocate.
+ * A buffer must not be used again before the previous user is done with it, so each caller keeps its own ScratchBuffer.
+ * @author tndoan
+ *
+ */
+public class ScratchBuffer {
+
+	private final ThreadLocal<double[]> buffer = ThreadLocal.withInitial(() -> new double[16]);
+
+	/**
+	 * 
+	 * @param n	minimum length
+	 * @return	array of this thread with length at least n. Its values are undefined
+	 */
+	public double[] get(int n) {
+		double[] result = buffer.get();
+		if (result.length < n) {
+			result = new double[Math.max(n, 2 * result.length)];
+			buffer.set(result);
+		}
+		return result;
+	}
+}
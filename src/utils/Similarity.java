@@ -1,12 +1,11 @@
 package utils;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.stream.IntStream;
 
+import main.ModeSimilarity;
 import main.Model;
-import object.UserObject;
-import object.VenueObject;
+import object.CheckinMatrix;
+import object.FactorStore;
 
 /**
  * calculate the similarity between 2 venues
@@ -14,22 +13,48 @@ import object.VenueObject;
  *
  */
 public class Similarity {
+
 	/**
-	 * instance is the cache of similarity one time
+	 * similarity of every venue with each of its neighbors, computed in parallel.
+	 * Predictions and gradients read these weights by the position of the neighbor instead of computing the similarity again
+	 * @param m		model which contains all information of users and venues
+	 * @param mode	mode of similarity (see ModeSimilarity). Weights are 1 for CONSTANT and COSIN,
+	 * 				because the cosine of extrinsic vectors changes with the parameters and is computed when it is needed
+	 * @return		result[v][j] is the similarity of venue v and its j-th neighbor
 	 */
-	private static Similarity instance;
-
-	private HashMap<String, Double> cksMap;
-
-	private HashMap<String, Double> distMap;
-
-	private Similarity() {
-		cksMap = new HashMap<>();
-		distMap = new HashMap<>();
+	public static double[][] edgeWeights(Model m, int mode) {
+		int numVenues = m.getNumVenues();
+		double[][] result = new double[numVenues][];
+		// signatures and distances of check-ins are built once, before the venues
+		CheckinSketch sketch = mode == ModeSimilarity.APPROX_CKS_SIM ? m.getCheckinSketch() : null;
+		if (mode == ModeSimilarity.COSIN_DIST_SIM)
+			m.getCheckinDistances();
+		IntStream.range(0, numVenues).parallel().forEach(v -> {
+			int[] neighbors = m.getVenueObj(v).getNeighbors();
+			double[] w = new double[neighbors.length];
+			for (int j = 0; j < neighbors.length; j++)
+				w[j] = sketch != null ? sketch.cosine(v, neighbors[j]) : score(v, neighbors[j], m, mode);
+			result[v] = w;
+		});
+		return result;
 	}
 
-	public static void initialize() {
-		instance = new Similarity();
+	/**
+	 * 
+	 * @param s1	venue index of 1st venue
+	 * @param s2	venue index of 2nd venue
+	 * @param m		model which contains all information of users and venues
+	 * @param mode	mode of similarity (see ModeSimilarity)
+	 * @return		similarity of both venues. It is 1 for CONSTANT and COSIN (see edgeWeights)
+	 */
+	public static double score(int s1, int s2, Model m, int mode) {
+		if (mode == ModeSimilarity.COSIN_CKS_SIM)
+			return cosinCheckinScore(s1, s2, m);
+		if (mode == ModeSimilarity.COSIN_DIST_SIM)
+			return cosinDistanceScore(s1, s2, m);
+		if (mode == ModeSimilarity.APPROX_CKS_SIM)
+			return m.getCheckinSketch().cosine(s1, s2);
+		return 1.0;
 	}
 	
 	/**
@@ -37,92 +62,106 @@ public class Similarity {
 	 * each element of v1 is equal to the number of check-in between users and venues
 	 * the order of users in all vector v is similar.
 	 * 
-	 * This function will calculate the cosine similarity given 2 ids of venues
-	 * @param s1	venue id of 1st venue
-	 * @param s2	venue id of 2nd venue
+	 * This function will calculate the cosine similarity given 2 indices of venues
+	 * @param s1	venue index of 1st venue
+	 * @param s2	venue index of 2nd venue
 	 * @param m 	model which contains all information of users and venues
-	 * @return 		cosine similarity
+	 * @return 		cosine similarity. It does not depend on the order of venues
 	 */
-	public static double cosinCheckinScore(String s1, String s2, Model m){
-		String key = makeKey(s1, s2);
-		Double value = instance.cksMap.get(key);
-		if (value != null) // check from cache if the cks cosine has been calculated before
-			return value;
-
-		VenueObject v1 = m.getVenueObj(s1);
-		VenueObject v2 = m.getVenueObj(s2);
-		
-		double num = 0.0; // numerator
-		double d1 = 0.0; // denominator
-		double d2 = 0.0;
-		
-		Set<String> uIds = new HashSet<>();
-		uIds.addAll(v1.getUserIds());
-		uIds.addAll(v2.getUserIds());
-		
-		for (String uId : uIds) {
-			UserObject uObj = m.getUserObj(uId);
-			double n1 = (double) uObj.retrieveNumCks(s1);
-			double n2 = (double) uObj.retrieveNumCks(s2);
-			
-			num += n1 * n2;
-			d1 += n1 * n1;
-			d2 += n2 * n2;
+	public static double cosinCheckinScore(int s1, int s2, Model m){
+		CheckinMatrix cks = m.getCheckins();
+		return checkinProduct(cks, s1, s2) / Math.sqrt(sqrCheckinNorm(cks, s1) * sqrCheckinNorm(cks, s2));
+	}
+	
+	/**
+	 * 
+	 * @param cks	check-in matrix
+	 * @param v		venue index
+	 * @return		sum of squared numbers of check-ins of all users of v
+	 */
+	public static double sqrCheckinNorm(CheckinMatrix cks, int v) {
+		double result = 0.0;
+		for (int q = cks.colStart(v); q < cks.colEnd(v); q++) {
+			double n = cks.numCksAt(cks.rowPosAt(q));
+			result += n * n;
 		}
-
-		double result = num / Math.sqrt(d1 * d2);
-		instance.cksMap.put(key, result); // update cache
 		return result;
 	}
 	
+	/**
+	 * inner product of the check-in vectors of 2 venues.
+	 * Users who only check-in to one venue add nothing, so only common users are matched
+	 * by a merge join of both lists of users, which are sorted by user index
+	 * @param cks	check-in matrix
+	 * @param s1	venue index of 1st venue
+	 * @param s2	venue index of 2nd venue
+	 * @return		sum over common users of the products of their numbers of check-ins
+	 */
+	public static double checkinProduct(CheckinMatrix cks, int s1, int s2) {
+		double num = 0.0;
+		int q1 = cks.colStart(s1), q2 = cks.colStart(s2);
+		int end1 = cks.colEnd(s1), end2 = cks.colEnd(s2);
+		while (q1 < end1 && q2 < end2) {
+			int u1 = cks.userAt(q1), u2 = cks.userAt(q2);
+			if (u1 < u2)
+				q1 = cks.seekUser(q1 + 1, end1, u2);
+			else if (u2 < u1)
+				q2 = cks.seekUser(q2 + 1, end2, u1);
+			else {
+				num += cks.numCksAt(cks.rowPosAt(q1)) * cks.numCksAt(cks.rowPosAt(q2));
+				q1++;
+				q2++;
+			}
+		}
+		return num;
+	}
+	
 	/**
 	 * consider 2 venues
 	 * each venue has a vector, say v1, whose size is equal to number of users making check-in to both venues.
 	 * each element of v1 is equal to the distance between users and venues
 	 * the order of users in both vectors v are similar.
 	 * 
-	 * This function will calculate the cosin similarity given 2 ids of venues
-	 * @param s1	venue id of 1st venue
-	 * @param s2	venue id of 2nd venue
+	 * This function will calculate the cosin similarity given 2 indices of venues
+	 * @param s1	venue index of 1st venue
+	 * @param s2	venue index of 2nd venue
 	 * @param m		model which contains all information of users and venues
-	 * @return 		cosine similarity
+	 * @return 		cosine similarity. It does not depend on the order of venues
 	 */
-	public static double cosinDistanceScore(String s1, String s2, Model m) {
-		String key = makeKey(s1, s2);
-		Double value = instance.distMap.get(key);
-		if (value != null)
-			return value;
-
+	public static double cosinDistanceScore(int s1, int s2, Model m) {
 		double num = 0.0;
 		double d1 = 0.0;
 		double d2 = 0.0;
 		
-		VenueObject v1 = m.getVenueObj(s1);
-		VenueObject v2 = m.getVenueObj(s2);
-		
-		Set<String> uIds = new HashSet<>();
-		uIds.addAll(v1.getUserIds());
-		Set<String> tempU = new HashSet<>();
-		tempU.addAll(v2.getUserIds());
-		uIds.retainAll(tempU); // uIds is the intersection. It contains the users who check-in to both s1 ans s2
-		
-		if (uIds.size() == 0)
-			return 0.0;
-		
-		for (String uId : uIds) {
-			UserObject uObj = m.getUserObj(uId);
+		// users who check-in to both s1 and s2, by merge join of both lists of users
+		CheckinMatrix cks = m.getCheckins();
+		double[] distances = m.getCheckinDistances();
+		int q1 = cks.colStart(s1), q2 = cks.colStart(s2);
+		int end1 = cks.colEnd(s1), end2 = cks.colEnd(s2);
+		while (q1 < end1 && q2 < end2) {
+			int u1 = cks.userAt(q1), u2 = cks.userAt(q2);
+			if (u1 < u2) {
+				q1 = cks.seekUser(q1 + 1, end1, u2);
+				continue;
+			}
+			if (u2 < u1) {
+				q2 = cks.seekUser(q2 + 1, end2, u1);
+				continue;
+			}
+			
 			// plus 0.1 meter because we want to avoid the case of venues which are home location and only check-ined by their owners
-			double dis1 = Distance.calculateDistance(uObj.getLocation(), v1.getLocation()) + 0.1;
-			double dis2 = Distance.calculateDistance(uObj.getLocation(), v2.getLocation()) + 0.1;
+			double dis1 = distances[cks.rowPosAt(q1++)] + 0.1;
+			double dis2 = distances[cks.rowPosAt(q2++)] + 0.1;
 			
 			d1 += dis1 * dis1;
 			d2 += dis2 * dis2;
 			num += dis1 * dis2;
 		}
 		
-		double result = num / Math.sqrt(d1 * d2);
-		instance.distMap.put(key, result); // update the cache
-		return result;
+		if (d1 == 0.0)
+			return 0.0;
+		
+		return num / Math.sqrt(d1 * d2);
 	}
 	
 	/**
@@ -138,21 +177,15 @@ public class Similarity {
 	}
 
 	/**
-	 * From 2 string make a unique key for the map
-	 * @param id1	1st string
-	 * @param id2	2nd string
-	 * @return		a unique key from 2 strings
+	 * it returns the cosin similarity between 2 vectors of the same store.
+	 * @param store	store of vectors
+	 * @param i		index of 1st vector
+	 * @param j		index of 2nd vector
+	 * @return
 	 */
-	private static String makeKey(String id1, String id2) {
-		int rComp = id1.compareTo(id2);
-
-		if (rComp == 1){
-			String result = new String(id1);
-			return result.concat(id2);
-		}
-
-		String result = new String(id2);
-		return result.concat(id1);
-
+	public static double cosinVector(FactorStore store, int i, int j) {
+		double n = store.dot(i, store, j);
+		double m = Math.sqrt(store.sqrNorm(i) * store.sqrNorm(j));
+		return n / m;
 	}
 }
@@ -0,0 +1,149 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import main.ModeSimilarity;
+import main.Model;
+
+/**
+ * files of similarity weights (see Similarity.edgeWeights) which are reused by later runs on the same data.
+ * Similarities of check-ins and distances only depend on the data, so one file serves all values of k, alpha, beta and lambdas.
+ * A file is named by the mode of similarity and the fingerprint of the data (see Model.dataFingerprint),
+ * and it is loaded by mapping it and copying the weights in bulk.
+ *
+ * Files are only used when a directory is set, by setDirectory or by the system property svc.similarity.cache.
+ *
+ * Format (little endian):
+ * MAGIC, VERSION, mode of similarity, padding, fingerprint of the data, number of venues, number of weights,
+ * weights of the neighbors of each venue in the order of venues
+ * @author tndoan
+ *
+ */
+public class SimilarityCache {
+
+	public static final int MAGIC = 0x53435653; // "SVCS"
+
+	public static final int VERSION = 1;
+
+	/**
+	 * directory of files, null if weights are always computed
+	 */
+	private static String directory = System.getProperty("svc.similarity.cache");
+
+	/**
+	 *
+	 * @param dir	directory of files of similarity weights, null to compute weights in every run
+	 */
+	public static void setDirectory(String dir) {
+		directory = dir;
+	}
+
+	/**
+	 * load the similarity weights of the model from the directory, or compute them and save them there
+	 * @param m		model
+	 * @param mode	mode of similarity
+	 * @return		result[v][j] is the similarity of venue v and its j-th neighbor
+	 */
+	public static double[][] edgeWeights(Model m, int mode) {
+		String dir = directory;
+		if (dir == null || (mode != ModeSimilarity.COSIN_CKS_SIM && mode != ModeSimilarity.COSIN_DIST_SIM))
+			return Similarity.edgeWeights(m, mode);
+
+		long fingerprint = m.dataFingerprint();
+		if (mode == ModeSimilarity.COSIN_DIST_SIM && Distance.isEquirectangular())
+			fingerprint = ~fingerprint; // other weights for the same data
+		Path file = Paths.get(dir, "similarity-" + mode + "-" + Long.toHexString(fingerprint) + ".bin");
+		if (Files.exists(file)) {
+			try {
+				return read(file.toString(), m, mode, fingerprint);
+			} catch (IOException e) { // it is computed again and replaced
+				System.out.println("cannot use " + file + ": " + e.getMessage());
+			}
+		}
+
+		double[][] result = Similarity.edgeWeights(m, mode);
+		try {
+			Files.createDirectories(file.getParent());
+			// written under another name then renamed, so other runs never see a partial file
+			Path tmp = Paths.get(file + "." + ProcessHandle.current().pid() + ".tmp");
+			write(tmp.toString(), result, mode, fingerprint);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("cannot save similarity weights to " + file + ": " + e.getMessage());
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param filename		name of file
+	 * @param weights		similarity weights of each venue
+	 * @param mode			mode of similarity
+	 * @param fingerprint	fingerprint of the data
+	 * @throws IOException
+	 */
+	public static void write(String filename, double[][] weights, int mode, long fingerprint) throws IOException {
+		int numWeights = 0;
+		for (double[] w : weights)
+			numWeights += w.length;
+
+		try (BinaryWriter out = new BinaryWriter(filename)) {
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(mode);
+			out.putInt(0); // padding
+			out.putLong(fingerprint);
+			out.putInt(weights.length);
+			out.putInt(numWeights);
+			for (double[] w : weights)
+				out.putDoubles(w);
+		}
+	}
+
+	/**
+	 *
+	 * @param filename		name of file
+	 * @param m				model whose data has the fingerprint
+	 * @param mode			mode of similarity
+	 * @param fingerprint	fingerprint of the data of m
+	 * @return				similarity weights of each venue of m
+	 * @throws IOException	if the file is not a file of similarity weights of this data and mode
+	 */
+	public static double[][] read(String filename, Model m, int mode, long fingerprint) throws IOException {
+		try (BinaryReader in = new BinaryReader(filename)) {
+			if (in.getInt() != MAGIC)
+				throw new IOException(filename + " is not a file of similarity weights");
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException("unsupported version of similarity weights: " + version);
+			if (in.getInt() != mode)
+				throw new IOException("other mode of similarity");
+			in.getInt(); // padding
+			if (in.getLong() != fingerprint)
+				throw new IOException("other data");
+
+			int numVenues = in.getInt();
+			int numWeights = in.getInt();
+			int expected = 0;
+			for (int v = 0; v < m.getNumVenues(); v++)
+				expected += m.getVenueObj(v).getNeighbors().length;
+			if (numVenues != m.getNumVenues() || numWeights != expected)
+				throw new IOException("other neighbors of venues");
+
+			double[] all = in.getDoubles(numWeights);
+			double[][] result = new double[numVenues][];
+			int off = 0;
+			for (int v = 0; v < numVenues; v++) {
+				int n = m.getVenueObj(v).getNeighbors().length;
+				result[v] = new double[n];
+				System.arraycopy(all, off, result[v], 0, n);
+				off += n;
+			}
+			return result;
+		}
+	}
+}
@@ -34,37 +34,6 @@ public class Utils {
 		return result;
 	}
 
-	/**
-	 * 
-	 * @param cksMap
-	 * @return hash map whose key is venue id, value is list of user id who have check-in in this venue
-	 */
-	public static HashMap<String, ArrayList<String>> collectUsers(HashMap<String, HashMap<String, Double>> cksMap){
-		HashMap<String, ArrayList<String>> result = new HashMap<>();
-		
-		for (String userId : cksMap.keySet()){
-			HashMap<String, Double> map = cksMap.get(userId);
-			
-			for (String venueId : map.keySet()){
-				Double numCks = map.get(venueId);
-				if (numCks == null){
-					System.err.println("Bug here");
-					continue;
-				}
-				
-				ArrayList<String> listOfUId = result.get(venueId);
-				if (listOfUId == null){
-					listOfUId = new ArrayList<>();
-					result.put(venueId, listOfUId);
-				}
-				
-				listOfUId.add(userId);
-			}
-		}
-		
-		return result;
-	}
-	
 	/**
 	 * Round up number up to the places-th behind the point
 	 * For example, 11.56 => 11.6
@@ -0,0 +1,140 @@
+package utils;
+
+/**
+ * kernels on vectors stored in arrays with an offset, used by the hot loops of the models.
+ * This class is the scalar implementation. When the module jdk.incubator.vector is loaded
+ * (java --add-modules jdk.incubator.vector) and SimdVectorKernels is on the class path (source folder src-vector),
+ * the static methods use SIMD instructions instead. Otherwise they stay scalar, so nothing else depends on the module.
+ *
+ * All kernels work in place and never allocate.
+ * @author tndoan
+ *
+ */
+public class VectorKernels {
+
+	private static final VectorKernels IMPL = load();
+
+	protected VectorKernels() {
+	}
+
+	private static VectorKernels load() {
+		if (Boolean.getBoolean("svc.scalar") || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+			return new VectorKernels();
+		try {
+			return (VectorKernels) Class.forName("utils.SimdVectorKernels").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return new VectorKernels();
+		}
+	}
+
+	/**
+	 *
+	 * @return	true if kernels use SIMD instructions
+	 */
+	public static boolean isSimd() {
+		return IMPL.getClass() != VectorKernels.class;
+	}
+
+	/**
+	 *
+	 * @param a		first array
+	 * @param aOff	position of the first vector in a
+	 * @param b		second array
+	 * @param bOff	position of the second vector in b
+	 * @param n		length of vectors
+	 * @return		inner product of a[aOff .. aOff + n - 1] and b[bOff .. bOff + n - 1]
+	 */
+	public static double dot(double[] a, int aOff, double[] b, int bOff, int n) {
+		return IMPL.dotImpl(a, aOff, b, bOff, n);
+	}
+
+	/**
+	 * y[yOff .. yOff + n - 1] += alpha * x[xOff .. xOff + n - 1]
+	 * @param alpha	scalar value
+	 * @param x		array of the added vector
+	 * @param xOff	position of the added vector in x
+	 * @param y		array of the updated vector
+	 * @param yOff	position of the updated vector in y
+	 * @param n		length of vectors
+	 */
+	public static void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+		IMPL.axpyImpl(alpha, x, xOff, y, yOff, n);
+	}
+
+	/**
+	 * inner products of one vector with many rows of a matrix, e.g. one user vector with the extrinsic vectors of all neighbors
+	 * @param x		array of the vector
+	 * @param xOff	position of the vector in x
+	 * @param m		matrix stored with stride k (row r is m[r * k .. r * k + k - 1])
+	 * @param rows	indices of rows
+	 * @param k		length of vectors
+	 * @param out	out[j] receives the inner product of the vector and row rows[j]
+	 */
+	public static void multiDot(double[] x, int xOff, double[] m, int[] rows, int k, double[] out) {
+		IMPL.multiDotImpl(x, xOff, m, rows, k, out);
+	}
+
+	/**
+	 * out += sum of w[j] * row rows[j] of m, e.g. a gradient which is a weighted sum of the extrinsic vectors of all neighbors
+	 * @param m		matrix stored with stride k
+	 * @param rows	indices of rows
+	 * @param w		weight of each row
+	 * @param k		length of vectors
+	 * @param out	vector of length k
+	 */
+	public static void addWeightedRows(double[] m, int[] rows, double[] w, int k, double[] out) {
+		IMPL.addWeightedRowsImpl(m, rows, w, k, out);
+	}
+
+	/**
+	 * out = x - y. out can be x or y
+	 * @param x
+	 * @param y
+	 * @param out
+	 */
+	public static void sub(double[] x, double[] y, double[] out) {
+		IMPL.subImpl(x, y, out);
+	}
+
+	/**
+	 * out = t * x. out can be x
+	 * @param t		scalar value
+	 * @param x
+	 * @param out
+	 */
+	public static void scale(double t, double[] x, double[] out) {
+		IMPL.scaleImpl(t, x, out);
+	}
+
+	protected double dotImpl(double[] a, int aOff, double[] b, int bOff, int n) {
+		double result = 0.0;
+		for (int t = 0; t < n; t++)
+			result += a[aOff + t] * b[bOff + t];
+		return result;
+	}
+
+	protected void axpyImpl(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+		for (int t = 0; t < n; t++)
+			y[yOff + t] += alpha * x[xOff + t];
+	}
+
+	protected void multiDotImpl(double[] x, int xOff, double[] m, int[] rows, int k, double[] out) {
+		for (int j = 0; j < rows.length; j++)
+			out[j] = dotImpl(x, xOff, m, rows[j] * k, k);
+	}
+
+	protected void addWeightedRowsImpl(double[] m, int[] rows, double[] w, int k, double[] out) {
+		for (int j = 0; j < rows.length; j++)
+			axpyImpl(w[j], m, rows[j] * k, out, 0, k);
+	}
+
+	protected void subImpl(double[] x, double[] y, double[] out) {
+		for (int i = 0; i < out.length; i++)
+			out[i] = x[i] - y[i];
+	}
+
+	protected void scaleImpl(double t, double[] x, double[] out) {
+		for (int i = 0; i < out.length; i++)
+			out[i] = t * x[i];
+	}
+}